@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts.benchmarks
+
+import grails.converters.JSON
+import grails.plugin.console.charts.ChartsEncryprionService
+import grails.util.Holders
+import org.codehaus.groovy.grails.commons.DefaultGrailsApplication
+import org.codehaus.groovy.grails.web.converters.configuration.ConvertersConfigurationInitializer
+
+/**
+ * Sets up the parts of the Grails runtime the benchmarked classes use: JSON converters and the Base64 codec
+ * method, which the application adds at startup.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class BenchmarkSupport {
+
+    private static boolean initialized
+
+    static synchronized void init() {
+        if (initialized)
+            return
+
+        ExpandoMetaClass.enableGlobally()
+        byte[].metaClass.encodeAsBase64 = { -> (delegate as byte[]).encodeBase64().toString() }
+
+        new ConvertersConfigurationInitializer().initialize(new DefaultGrailsApplication())
+
+        initialized = true
+    }
+
+    /**
+     * Returns encryption service initialized as by the application, <code>DESede</code> scheme for legacy tokens.
+     */
+    static ChartsEncryprionService encryptionService(String scheme) {
+        init()
+
+        ConfigObject config = new ConfigObject()
+        config.grails.plugin.console.charts.encryption.scheme = scheme
+        Holders.config = config
+
+        ChartsEncryprionService service = new ChartsEncryprionService()
+        service.init()
+        service
+    }
+
+    static String toJson(Object value) {
+        new JSON(value).toString()
+    }
+
+    static Object parseJson(String json) {
+        JSON.parse(json)
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts.benchmarks;
+
+import grails.plugin.console.charts.ChartsAggregator;
+import grails.plugin.console.charts.ConsoleChartsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading chart results into the shapes served by the data endpoint and rendering them as JSON.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPathBenchmark {
+
+    /**
+     * Counts written characters, so JSON is rendered without keeping it.
+     */
+    static class CountingWriter extends Writer {
+
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String str, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    @Param({"1000", "100000"})
+    int rows;
+
+    @Param({"2", "10"})
+    int columns;
+
+    @Param({"0", "900"})
+    int points;
+
+    private ConsoleChartsService service;
+    private ResultSetMetaData metaData;
+    private List<Object[]> data;
+    private Map<String, Object> result;
+
+    @Setup
+    public void setup() throws SQLException {
+        BenchmarkSupport.init();
+
+        service = new ConsoleChartsService();
+        metaData = SyntheticRows.metaData(columns);
+        data = SyntheticRows.rows(rows, columns);
+
+        result = new LinkedHashMap<String, Object>();
+        result.put("content", parse());
+        result.put("columns", service.getColumns(SyntheticRows.open(metaData, data)));
+        result.put("override", null);
+        result.put("count", rows);
+    }
+
+    @Benchmark
+    public List parse() {
+        return service.parse(SyntheticRows.open(metaData, data), points());
+    }
+
+    @Benchmark
+    public List toList() {
+        return service.toList(SyntheticRows.open(metaData, data), points());
+    }
+
+    @Benchmark
+    public Map columnar() {
+        return service.toColumnar(SyntheticRows.open(metaData, data), true, points());
+    }
+
+    @Benchmark
+    public long streamRows() {
+        CountingWriter writer = new CountingWriter();
+        service.writeRows(SyntheticRows.open(metaData, data), writer, points());
+        return writer.count;
+    }
+
+    @Benchmark
+    public int aggregate() throws SQLException {
+        ChartsAggregator aggregator = ChartsAggregator.parse("hour");
+        aggregator.aggregate(SyntheticRows.open(metaData, data));
+        return aggregator.getBuckets();
+    }
+
+    @Benchmark
+    public String renderJson() {
+        return BenchmarkSupport.toJson(result);
+    }
+
+    private Integer points() {
+        return points > 0 ? points : null;
+    }
+
+}
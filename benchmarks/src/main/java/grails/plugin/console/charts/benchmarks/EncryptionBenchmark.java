@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts.benchmarks;
+
+import grails.plugin.console.charts.ChartsEncryprionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token and codec work done by <code>data</code> and <code>view</code> before a query runs.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final String CONNECTION = "{\"mysqlHostname\":\"db.example.com\",\"mysqlPort\":3306," +
+            "\"mysqlUsername\":\"charts\",\"mysqlPassword\":\"secret\",\"sshToggle\":true," +
+            "\"sshHostname\":\"gateway.example.com\",\"sshPort\":22,\"sshUsername\":\"charts\"," +
+            "\"sshPassword\":\"secret\"}";
+
+    private static final String QUERY = "SELECT date_format(created, '%Y-%m-%d %H:00') AS hour, count(*) AS orders,\n" +
+            "       sum(total) AS revenue\n" +
+            "FROM orders\n" +
+            "WHERE created >= :from AND created < :to\n" +
+            "GROUP BY hour";
+
+    /**
+     * <code>AES</code> for current AES-GCM tokens, <code>DESede</code> for legacy ones.
+     */
+    @Param({"AES", "DESede"})
+    String scheme;
+
+    private ChartsEncryprionService service;
+    private String connectionToken;
+    private String encodedQuery;
+    private String link;
+
+    @Setup
+    public void setup() throws Exception {
+        service = BenchmarkSupport.encryptionService(scheme);
+
+        connectionToken = service.encrypt(CONNECTION);
+        encodedQuery = service.encodeBase64(QUERY);
+
+        String definition = "{\"connectionString\":\"" + connectionToken + "\",\"query\":" +
+                BenchmarkSupport.toJson(QUERY) + ",\"title\":\"Orders\",\"width\":900,\"height\":500}";
+        link = service.encrypt(definition);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return service.encrypt(CONNECTION);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return service.decrypt(connectionToken);
+    }
+
+    @Benchmark
+    public String encodeQuery() throws Exception {
+        return service.encodeBase64(QUERY);
+    }
+
+    @Benchmark
+    public String decodeQuery() throws Exception {
+        return service.decodeBase64(encodedQuery);
+    }
+
+    @Benchmark
+    public String encodePathSegment() {
+        return service.encodePathSegment(connectionToken);
+    }
+
+    /**
+     * Decodes a shared link as <code>view</code> does: decrypts the definition, parses it and decrypts its
+     * connection string.
+     */
+    @Benchmark
+    public String decodeLink() throws Exception {
+        Map definition = (Map) BenchmarkSupport.parseJson(service.decrypt(link));
+        return service.decrypt((String) definition.get("connectionString"));
+    }
+
+}
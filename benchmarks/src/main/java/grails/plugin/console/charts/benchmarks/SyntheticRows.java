@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts.benchmarks;
+
+import grails.plugin.console.charts.CountingResultSet;
+import grails.plugin.console.charts.MergedResultSet;
+import groovy.lang.Closure;
+
+import javax.sql.rowset.RowSetMetaDataImpl;
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * In-memory chart results: a timestamp category, one row per minute, followed by integer, double and decimal value
+ * columns in turn.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class SyntheticRows {
+
+    private static final long START = 1388534400000L;
+
+    private SyntheticRows() {
+    }
+
+    public static ResultSetMetaData metaData(int columns) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(columns);
+
+        for (int i = 1; i <= columns; i++) {
+            String label = i == 1 ? "time" : "value" + (i - 1);
+
+            metaData.setColumnLabel(i, label);
+            metaData.setColumnName(i, label);
+            metaData.setColumnType(i, type(i - 1));
+            metaData.setNullable(i, ResultSetMetaData.columnNullable);
+        }
+
+        return metaData;
+    }
+
+    public static List<Object[]> rows(int count, int columns) {
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<Object[]>(count);
+
+        for (int r = 0; r < count; r++) {
+            Object[] row = new Object[columns];
+            row[0] = new Timestamp(START + r * 60000L);
+
+            for (int i = 1; i < columns; i++) {
+                switch (type(i)) {
+                    case Types.BIGINT:
+                        row[i] = (long) random.nextInt(100000);
+                        break;
+                    case Types.DOUBLE:
+                        row[i] = random.nextDouble() * 1000;
+                        break;
+                    default:
+                        row[i] = BigDecimal.valueOf(random.nextInt(10000000), 2);
+                }
+            }
+
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Opens a forward-only result set over the rows, as chart queries are read.
+     */
+    public static CountingResultSet open(ResultSetMetaData metaData, List<Object[]> rows) {
+        final Iterator<Object[]> iterator = rows.iterator();
+
+        Closure<Object[]> reader = new Closure<Object[]>(null) {
+            public Object[] doCall() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        };
+
+        return new CountingResultSet(new MergedResultSet(metaData, reader));
+    }
+
+    private static int type(int index) {
+        if (index == 0) {
+            return Types.TIMESTAMP;
+        }
+
+        switch (index % 3) {
+            case 1:
+                return Types.BIGINT;
+            case 2:
+                return Types.DOUBLE;
+            default:
+                return Types.DECIMAL;
+        }
+    }
+
+}
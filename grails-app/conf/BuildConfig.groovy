@@ -49,6 +49,9 @@ grails.project.dependency.resolution = {
         runtime 'mysql:mysql-connector-java:5.1.33', {
             export = false
         }
+        runtime 'org.postgresql:postgresql:9.3-1102-jdbc41', {
+            export = false
+        }
 
         test 'org.grails:grails-datastore-test-support:1.0-grails-2.4'
     }
@@ -15,15 +15,22 @@
  */
 package grails.plugin.console.charts
 
-import com.jcraft.jsch.Session
+import com.jcraft.jsch.JSchException
 import grails.converters.JSON
+import grails.gsp.PageRenderer
 import grails.util.Holders
 import org.codehaus.groovy.grails.web.converters.exceptions.ConverterException
+import org.codehaus.groovy.grails.web.json.JSONObject
 import org.codehaus.groovy.grails.web.mapping.LinkGenerator
 import org.springframework.beans.factory.annotation.Autowired
 
+import javax.servlet.AsyncEvent
+import javax.servlet.AsyncListener
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
 import java.sql.Connection
 import java.sql.SQLException
+import java.util.concurrent.RejectedExecutionException
 
 /**
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
@@ -32,12 +39,16 @@ class ConsoleChartsController {
 
     static defaultAction = 'data'
 
+    static final String PARAMETER_PREFIX = 'param.'
+
     def chartsEncryprionService
     def consoleChartsService
 
     @Autowired
     LinkGenerator linkGenerator
 
+    PageRenderer groovyPageRenderer
+
     def connect(String data) {
         if (!data) {
             render([connected: false, error: 'empty_data'] as JSON)
@@ -61,15 +72,14 @@ class ConsoleChartsController {
             return
         }
 
-        String mysqlHostname = json.mysqlHostname ?: 'localhost'
-        Integer mysqlPort = json.mysqlPort ?: 3306
+        ChartsConnectionProvider provider = consoleChartsService.connectionProviders[json.databaseType ?: 'mysql']
 
-        Session sshSession = null
+        if (provider == null) {
+            render([connected: false, error: 'database_type_unsupported'] as JSON)
+            return
+        }
 
         if (json.sshToggle) {
-            mysqlPort = 3368
-            mysqlHostname = 'localhost'
-
             if (!json.sshHostname) {
                 render([connected: false, error: 'ssh_hostname_empty'] as JSON)
                 return
@@ -79,42 +89,33 @@ class ConsoleChartsController {
                 render([connected: false, error: 'ssh_username_empty'] as JSON)
                 return
             }
-
-            sshSession = consoleChartsService.doSshTunnel(json.sshHostname, json.sshPort ?: 22, json.sshUsername,
-                    json.sshPassword, json.mysqlHostname, mysqlPort, json.mysqlPort ?: 3306)
         }
 
-        if (!json.mysqlHostname) {
-            sshSession?.disconnect()
-
+        if (!json.mysqlHostname && provider.hostRequired) {
             render([connected: false, error: 'mysql_hostname_empty'] as JSON)
             return
         }
 
-        if (!json.mysqlUsername) {
-            sshSession?.disconnect()
+        if (!json.mysqlHostname && !json.database) {
+            render([connected: false, error: 'database_empty'] as JSON)
+            return
+        }
 
+        if (!json.mysqlUsername && provider.hostRequired) {
             render([connected: false, error: 'mysql_username_empty'] as JSON)
             return
         }
 
         try {
-            Connection connection = consoleChartsService
-                    .connectToMySql(mysqlHostname, mysqlPort, json.mysqlUsername, json.mysqlPassword)
-
-            connection.close()
-            sshSession?.disconnect()
+            Connection connection = consoleChartsService.borrowConnection(json)
+            consoleChartsService.releaseConnection(connection)
 
             String encodedString = chartsEncryprionService.encrypt(json.toString())
 
-            String status = "${json.sshToggle ? "${json.mysqlHostname}:${json.mysqlPort}" : "${mysqlHostname}:${mysqlPort}"}${json.sshToggle ? " through ${json.sshHostname}:${json.sshPort}" : ''}"
-
             render([connected       : true,
                     connectionString: encodedString,
-                    status          : "Connected to ${status}"] as JSON)
-        } catch (IOException | SQLException e) {
-            sshSession?.disconnect()
-
+                    status          : "Connected to ${consoleChartsService.describeConnection(json)}"] as JSON)
+        } catch (IOException | SQLException | JSchException e) {
             render([connected: false, error: "${e.message ?: ''} ${e.cause?.message ?: ''}", exception: e.class.canonicalName] as JSON)
         }
     }
@@ -130,13 +131,218 @@ class ConsoleChartsController {
             query = chartsEncryprionService.decodeBase64(query)
             connectionString = chartsEncryprionService.decrypt(connectionString)
             appearance = chartsEncryprionService.decodeBase64(appearance)
+        } catch (e) {
+            render([error: true, text: "${e.message ?: ''} ${e.cause?.message ?: ''}", exception: e.class.canonicalName] as JSON)
+            return
+        }
+
+        Integer points = downsampleEnabled ? params.int('points') : null
+        Map parameters = queryParameters()
+
+        if (params.since)
+            parameters.since = params.since
+
+        // next page of a truncated result
+        if (params.cursor)
+            parameters[ConsoleChartsService.CURSOR] = params.cursor
+        if (params.aggregate)
+            parameters[ConsoleChartsService.AGGREGATE] = params.aggregate
+
+        // incremental refresh: only rows from the last category the client has on
+        if (parameters.since && params.category && !ChartsSqlScript.parameters(query).contains('since'))
+            query = consoleChartsService.withSince(query, connectionString, params.category)
+
+        String format = params.format
+        boolean delta = params.boolean('delta', false)
+        int timeout = params.int('timeout') ?: 0
+        String queryId = queryKey(params.queryId ?: UUID.randomUUID().toString())
+        ChartsQueryExecutor queryExecutor = consoleChartsService.queryExecutor
+        HttpServletRequest currentRequest = request
+
+        if (!request.asyncSupported || Holders.config.grails.plugin.console.charts.async.enabled == false) {
+            queryExecutor.run(queryId, timeout) {
+                writeData(currentRequest, response, query, connectionString, appearance, format, delta, points,
+                        parameters)
+            }
+            return
+        }
+
+        def asyncContext = startAsync()
+        HttpServletResponse asyncResponse = asyncContext.response as HttpServletResponse
+
+        asyncContext.timeout = 0
+        asyncContext.addListener([onComplete  : { AsyncEvent event -> },
+                                  onTimeout   : { AsyncEvent event -> queryExecutor.cancel(queryId) },
+                                  onError     : { AsyncEvent event -> queryExecutor.cancel(queryId) },
+                                  onStartAsync: { AsyncEvent event -> }] as AsyncListener)
+
+        try {
+            queryExecutor.submit(queryId, timeout) {
+                try {
+                    writeData(currentRequest, asyncResponse, query, connectionString, appearance, format, delta,
+                            points, parameters)
+                } finally {
+                    asyncContext.complete()
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            writeError(asyncResponse, e, 'Too many queries are running, try again later')
+            asyncContext.complete()
+        }
+    }
+
+    def cancel(String queryId) {
+        if (!queryId) {
+            render([cancelled: false, error: 'empty_query_id'] as JSON)
+            return
+        }
+
+        render([cancelled: consoleChartsService.queryExecutor.cancel(queryKey(queryId))] as JSON)
+    }
+
+    /**
+     * Streams chart updates as Server-Sent Events every <code>interval</code> seconds: <code>full</code> events
+     * with all rows, <code>delta</code> events with rows from the last category on and <code>failure</code>
+     * events. Takes the chart as shared link data (<code>q</code>) or as query and connection string.
+     */
+    def live(String q, String query, String connectionString) {
+        Integer points = null
+        Map parameters = queryParameters()
+
+        try {
+            if (q) {
+                def json = JSON.parse(chartsEncryprionService.decrypt(q))
+
+                query = json.query
+                connectionString = chartsEncryprionService.decrypt(json.connectionString)
+                parameters = definitionParameters(json) + parameters
 
-            render(consoleChartsService.getData(query, connectionString, appearance, request) as JSON)
+                if (json.aggregate)
+                    parameters[ConsoleChartsService.AGGREGATE] = json.aggregate as String
+
+                if (downsampleEnabled)
+                    points = json.width as Integer
+            } else {
+                query = chartsEncryprionService.decodeBase64(query)
+                connectionString = chartsEncryprionService.decrypt(connectionString)
+
+                if (params.aggregate)
+                    parameters[ConsoleChartsService.AGGREGATE] = params.aggregate
+
+                if (downsampleEnabled)
+                    points = params.int('points')
+            }
         } catch (e) {
             render([error: true, text: "${e.message ?: ''} ${e.cause?.message ?: ''}", exception: e.class.canonicalName] as JSON)
+            return
+        }
+
+        if (!query) {
+            render([error: true, text: 'Query is empty'] as JSON)
+            return
+        }
+
+        if (!request.asyncSupported) {
+            render([error: true, text: 'Live charts require asynchronous requests'] as JSON)
+            return
+        }
+
+        ChartsLiveHub liveHub = consoleChartsService.liveHub
+        long interval = (params.long('interval') ?: 0L) * 1000
+
+        def asyncContext = startAsync()
+        HttpServletResponse asyncResponse = asyncContext.response as HttpServletResponse
+
+        asyncResponse.contentType = 'text/event-stream;charset=UTF-8'
+        asyncResponse.setHeader('Cache-Control', 'no-cache')
+
+        PrintWriter writer = asyncResponse.writer
+        ChartsLiveHub.Subscriber subscriber = new ChartsLiveHub.Subscriber() {
+            boolean closed = false
+
+            @Override
+            synchronized boolean send(String event, String data) {
+                if (closed)
+                    return false
+
+                writer.write("event: ${event}\ndata: ${data}\n\n")
+                writer.flush()
+
+                !writer.checkError()
+            }
+
+            @Override
+            synchronized void close() {
+                if (closed)
+                    return
+
+                closed = true
+                liveHub.unsubscribe(this)
+
+                try {
+                    asyncContext.complete()
+                } catch (IllegalStateException ignored) {
+                    // already completed by the container
+                }
+            }
+        }
+
+        asyncContext.timeout = 0
+        asyncContext.addListener([onComplete  : { AsyncEvent event -> liveHub.unsubscribe(subscriber) },
+                                  onTimeout   : { AsyncEvent event -> subscriber.close() },
+                                  onError     : { AsyncEvent event -> subscriber.close() },
+                                  onStartAsync: { AsyncEvent event -> }] as AsyncListener)
+
+        if (!liveHub.subscribe(query, connectionString, parameters, points, interval, subscriber)) {
+            subscriber.send('failure', ([error: true, text: 'Too many live charts are running, try again later'] as JSON).toString())
+            subscriber.close()
         }
     }
 
+    /**
+     * Returns timings of the request pipeline stages, counters and the state of pools, caches and executors.
+     */
+    def metrics() {
+        if (Holders.config.grails.plugin.console.charts.metrics.enabled == false) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND)
+            return
+        }
+
+        render((consoleChartsService.metrics.stats +
+                [pool     : consoleChartsService.connectionPool.stats,
+                 tunnels  : consoleChartsService.tunnelManager.stats,
+                 queries  : consoleChartsService.queryExecutor.stats,
+                 cache    : consoleChartsService.resultCache.stats,
+                 pages    : consoleChartsService.pageCache.stats,
+                 scripts  : consoleChartsService.scriptCache.stats,
+                 live     : consoleChartsService.liveHub.stats,
+                 snapshots: consoleChartsService.snapshotStore.stats,
+                 queryLog : consoleChartsService.queryLog?.stats]) as JSON)
+    }
+
+    /**
+     * Ranks chart queries of the query log by total or p99 duration, as a page or as JSON with
+     * <code>format=json</code>.
+     */
+    def queries(String sort, String format) {
+        ChartsQueryLog queryLog = consoleChartsService.queryLog
+
+        if (queryLog == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND)
+            return
+        }
+
+        sort = sort == 'p99' ? 'p99' : 'total'
+        List<Map> ranking = queryLog.ranking(sort, params.int('max') ?: 100)
+
+        if (format == 'json') {
+            render([sort: sort, queries: ranking] as JSON)
+            return
+        }
+
+        [sort: sort, queries: ranking, stats: queryLog.stats]
+    }
+
     def link() {
         def json = request.JSON as JSON
         String data = json.toString()
@@ -152,6 +358,50 @@ class ConsoleChartsController {
             return [error: true, text: 'Q is empty']
         }
 
+        ChartsResultCache pageCache = consoleChartsService.pageCache
+        Map parameters = queryParameters()
+        String key = [q, parameters.sort()].join('\u0000').encodeAsSHA256()
+        Map page = pageCache.ttl > 0 ? pageCache.getIfPresent(key) : null
+
+        if (page == null) {
+            Map model = buildViewModel(q, parameters)
+
+            if (model.error)
+                return model
+
+            String etag = '"' + (model.findAll { it.key != 'editLink' } as JSON).toString().encodeAsSHA256() + '"'
+
+            // rendering the status only, so the default view isn't rendered with an empty model
+            if (isNotModified(etag, null)) {
+                response.setHeader('ETag', etag)
+                render(status: HttpServletResponse.SC_NOT_MODIFIED)
+                return
+            }
+
+            page = [html        : consoleChartsService.metrics.time('view') {
+                        groovyPageRenderer.render(view: '/consoleCharts/view', model: model)
+                    },
+                    etag        : etag,
+                    lastModified: System.currentTimeMillis()]
+
+            // pages of appearance scripts depend on the request, unless they show a snapshot
+            if (pageCache.ttl > 0 && (!model.appearance || model.snapshotTime))
+                pageCache.put(key, page, pageCache.ttl)
+        }
+
+        response.setHeader('ETag', page.etag)
+        response.setDateHeader('Last-Modified', page.lastModified)
+        response.setHeader('Cache-Control', 'no-cache')
+
+        if (isNotModified(page.etag, page.lastModified)) {
+            render(status: HttpServletResponse.SC_NOT_MODIFIED)
+            return
+        }
+
+        render(text: page.html, contentType: 'text/html', encoding: 'UTF-8')
+    }
+
+    private Map buildViewModel(String q, Map parameters) {
         String decoded = null
         def json = null
         String connectionString = null
@@ -186,8 +436,24 @@ class ConsoleChartsController {
                     "appearance=${appearance ? chartsEncryprionService.encodePathSegment(chartsEncryprionService.encodePathSegment(chartsEncryprionService.encodeBase64(appearance))).encodeAsURL() : ''};" +
                     "query=${chartsEncryprionService.encodePathSegment(chartsEncryprionService.encodePathSegment(chartsEncryprionService.encodeBase64(query))).encodeAsURL()}"
 
+        Integer points = downsampleEnabled ? json.width as Integer : null
+        Map queryParameters = definitionParameters(json) + parameters
+
+        if (json.aggregate)
+            queryParameters[ConsoleChartsService.AGGREGATE] = json.aggregate as String
+
         try {
-            data = consoleChartsService.getData(query, connectionString, appearance, request)
+            if (json.snapshot) {
+                ChartsSnapshotStore.Snapshot snapshot =
+                        consoleChartsService.snapshotStore.get(q, queryParameters,
+                                (json.snapshot as long) * 1000, points)
+
+                data = new LinkedHashMap(snapshot.data)
+                data.snapshotTime = snapshot.created
+            } else {
+                data = consoleChartsService.getData(query, connectionString, appearance, request,
+                        json.cacheTtl != null ? json.cacheTtl as Long : null, points, queryParameters)
+            }
         } catch (e) {
             return [error: true, exception: e, text: "Can't get data", q: q, decoded: decoded, editLink: editLink]
         }
@@ -200,7 +466,126 @@ class ConsoleChartsController {
         data.appearance = appearance
         data.editLink = editLink
 
+        // charts shaped by appearance scripts are not pushed, live events carry plain rows
+        if (json.refresh && !appearance)
+            data.liveLink = createLink(controller: 'consoleCharts', action: 'live',
+                    params: [q: q, interval: json.refresh] +
+                            parameters.collectEntries { [PARAMETER_PREFIX + it.key, it.value] })
+
         data
     }
 
+    private void writeData(HttpServletRequest req, HttpServletResponse res, String query, String connectionString,
+                           String appearance, String format, boolean delta, Integer points, Map parameters) {
+        ChartsMetrics metrics = consoleChartsService.metrics
+        ChartsCountingWriter writer = null
+        long start = System.nanoTime()
+
+        metrics.beginRequest()
+
+        try {
+            res.contentType = 'application/json;charset=UTF-8'
+            writer = new ChartsCountingWriter(res.writer)
+
+            if (format == 'rows' && !appearance) {
+                consoleChartsService.streamData(query, connectionString, writer, points, parameters)
+                return
+            }
+
+            def result = format == 'columnar' && !appearance ?
+                    consoleChartsService.getColumnarData(query, connectionString, delta, points, parameters) :
+                    consoleChartsService.getData(query, connectionString, appearance, req, null, points, parameters)
+
+            // rendering itself can't be included, the header has to be sent before the body
+            if (serverTimingEnabled) {
+                Map<String, Long> timings = metrics.requestTimings
+                timings.total = System.nanoTime() - start
+                res.setHeader('Server-Timing', ChartsMetrics.serverTiming(timings))
+            }
+
+            metrics.time('render') {
+                (result as JSON).render(writer)
+                writer.flush()
+            }
+        } catch (e) {
+            if (res.committed) {
+                log.error("Query failed after response was committed", e)
+                return
+            }
+
+            writeError(res, e)
+        } finally {
+            metrics.record('request', System.nanoTime() - start)
+
+            if (writer != null)
+                metrics.increment('bytes', writer.bytes)
+
+            metrics.endRequest()
+        }
+    }
+
+    /**
+     * Returns named query parameters passed as <code>param.name=value</code> request parameters.
+     */
+    private Map<String, Object> queryParameters() {
+        Map<String, Object> result = [:]
+
+        params.each { key, value ->
+            if (key.toString().startsWith(PARAMETER_PREFIX) && !(value instanceof Map))
+                result[key.toString().substring(PARAMETER_PREFIX.length())] = value instanceof String[] ? value[0] : value
+        }
+
+        result
+    }
+
+    /**
+     * Returns default parameter values of a shared chart, its <code>parameters</code> property.
+     */
+    private static Map<String, Object> definitionParameters(json) {
+        if (!(json.parameters instanceof Map))
+            return [:]
+
+        (json.parameters as Map).collectEntries { key, value ->
+            [key.toString(), value.is(JSONObject.NULL) ? null : value]
+        } as Map<String, Object>
+    }
+
+    private void writeError(HttpServletResponse res, Exception e, String text = null) {
+        res.resetBuffer()
+        res.contentType = 'application/json;charset=UTF-8'
+
+        ([error    : true,
+          text     : text ?: "${e.message ?: ''} ${e.cause?.message ?: ''}".toString(),
+          exception: e.class.canonicalName] as JSON).render(res.writer)
+    }
+
+    /**
+     * Scopes query id to the current session, so queries can be cancelled only by the session that started them.
+     */
+    private String queryKey(String queryId) {
+        "${session.id}:${queryId}"
+    }
+
+    private boolean isNotModified(String etag, Long lastModified) {
+        String ifNoneMatch = request.getHeader('If-None-Match')
+
+        if (ifNoneMatch)
+            return ifNoneMatch.split(',')*.trim().any { it == etag || it == '*' }
+
+        if (lastModified == null)
+            return false
+
+        long ifModifiedSince = request.getDateHeader('If-Modified-Since')
+
+        ifModifiedSince != -1 && lastModified.intdiv(1000) <= ifModifiedSince.intdiv(1000)
+    }
+
+    private boolean isServerTimingEnabled() {
+        Holders.config.grails.plugin.console.charts.metrics.serverTiming as boolean
+    }
+
+    private boolean isDownsampleEnabled() {
+        Holders.config.grails.plugin.console.charts.downsample as boolean
+    }
+
 }
@@ -16,39 +16,92 @@
 package grails.plugin.console.charts
 
 import grails.util.Holders
+import groovy.util.logging.Log4j
 
 import javax.annotation.PostConstruct
 import javax.crypto.Cipher
 import javax.crypto.SecretKey
 import javax.crypto.SecretKeyFactory
 import javax.crypto.spec.DESedeKeySpec
-import javax.script.ScriptEngine
-import javax.script.ScriptEngineManager
+import javax.crypto.spec.SecretKeySpec
+import java.security.GeneralSecurityException
+import java.security.MessageDigest
+import java.security.SecureRandom
 import java.security.spec.KeySpec
 
 /**
+ * Encrypts connection strings and share links. New tokens are AES-GCM encrypted and prefixed with
+ * {@link #AEAD_PREFIX}; tokens without prefix are decrypted with legacy DESede so already shared links keep working.
+ *
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
  */
+@Log4j
 class ChartsEncryprionService {
 
     static final String unicodeFormat = 'UTF8'
     static final String encryptionScheme = 'DESede'
+    static final String aeadScheme = 'AES/GCM/NoPadding'
+
+    static final String AEAD_PREFIX = 'v2.'
+    static final int IV_LENGTH = 12
+    static final int TAG_LENGTH = 128
 
     SecretKey key
-    ScriptEngine javaScriptEngine
+    SecretKey aeadKey
+    boolean aeadEnabled
+
+    private final SecureRandom random = new SecureRandom()
+    private final ThreadLocal<Cipher> legacyCiphers = new ThreadLocal<Cipher>()
+    private final ThreadLocal<Cipher> aeadCiphers = new ThreadLocal<Cipher>()
+    private Class gcmParameterSpec
 
     String encrypt(String unencryptedString) {
+        byte[] plainText = unencryptedString.getBytes(unicodeFormat)
+
+        if (aeadEnabled) {
+            byte[] iv = new byte[IV_LENGTH]
+            random.nextBytes(iv)
+
+            def cipher = getAeadCipher()
+            cipher.init(Cipher.ENCRYPT_MODE, aeadKey, gcmParameterSpec.newInstance(TAG_LENGTH, iv))
+
+            byte[] encryptedText = cipher.doFinal(plainText)
+            byte[] token = new byte[iv.length + encryptedText.length]
+
+            System.arraycopy(iv, 0, token, 0, iv.length)
+            System.arraycopy(encryptedText, 0, token, iv.length, encryptedText.length)
+
+            return AEAD_PREFIX + token.encodeAsBase64()
+        }
+
         def cipher = getCipher()
 
         cipher.init(Cipher.ENCRYPT_MODE, key)
 
-        byte[] plainText = unencryptedString.getBytes(unicodeFormat)
         byte[] encryptedText = cipher.doFinal(plainText)
 
         encryptedText.encodeAsBase64()
     }
 
     String decrypt(String encryptedString) {
+        if (encryptedString.startsWith(AEAD_PREFIX)) {
+            if (gcmParameterSpec == null)
+                throw new GeneralSecurityException("${aeadScheme} is not supported by this JVM")
+
+            byte[] token = encryptedString.substring(AEAD_PREFIX.length()).decodeBase64()
+
+            if (token.length <= IV_LENGTH)
+                throw new GeneralSecurityException('Token is too short')
+
+            def cipher = getAeadCipher()
+            cipher.init(Cipher.DECRYPT_MODE, aeadKey,
+                    gcmParameterSpec.newInstance(TAG_LENGTH, token, 0, IV_LENGTH))
+
+            byte[] plainText = cipher.doFinal(token, IV_LENGTH, token.length - IV_LENGTH)
+
+            return new String(plainText, unicodeFormat)
+        }
+
         def cipher = getCipher()
 
         cipher.init(Cipher.DECRYPT_MODE, key)
@@ -60,27 +113,50 @@ class ChartsEncryprionService {
     }
 
     String decodeBase64(String uriComponent) {
-        String js = "unescape(decodeURIComponent('" + new String(uriComponent.decodeBase64()).encodeAsJavaScript() + "'))"
-        javaScriptEngine.eval(js)
+        if (uriComponent == null)
+            return null
+
+        ChartsUriCodec.unescape(ChartsUriCodec.decodeURIComponent(new String(uriComponent.decodeBase64(), 'ISO-8859-1')))
     }
 
     String encodeBase64(String uriComponent) {
-        String js = "encodeURIComponent(escape('" + uriComponent.encodeAsJavaScript() + "'))"
-        javaScriptEngine.eval(js).encodeAsBase64()
+        if (uriComponent == null)
+            return null
+
+        ChartsUriCodec.encodeURIComponent(ChartsUriCodec.escape(uriComponent)).getBytes('ISO-8859-1').encodeBase64().toString()
     }
 
     String encodeQueryString(String decodedURLComponent) {
-        String js = "encodeURIComponent('" + decodedURLComponent.encodeAsJavaScript() + "').replace(/%20/g, \"+\")"
-        javaScriptEngine.eval(js)
+        ChartsUriCodec.encodeURIComponent(decodedURLComponent)?.replace('%20', '+')
     }
 
     String encodePathSegment(String decodedURLComponent) {
-        String js = "encodeURIComponent('" + decodedURLComponent.encodeAsJavaScript() + "')"
-        javaScriptEngine.eval(js)
+        ChartsUriCodec.encodeURIComponent(decodedURLComponent)
     }
 
+    /**
+     * Returns DESede cipher of the current thread. Ciphers are not thread-safe, so every thread gets its own.
+     */
     Cipher getCipher() {
-        Cipher.getInstance(encryptionScheme)
+        Cipher cipher = legacyCiphers.get()
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance(encryptionScheme)
+            legacyCiphers.set(cipher)
+        }
+
+        cipher
+    }
+
+    Cipher getAeadCipher() {
+        Cipher cipher = aeadCiphers.get()
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance(aeadScheme)
+            aeadCiphers.set(cipher)
+        }
+
+        cipher
     }
 
     @PostConstruct
@@ -92,8 +168,20 @@ class ChartsEncryprionService {
 
         key = keyFactory.generateSecret(keySpec)
 
-        ScriptEngineManager factory = new ScriptEngineManager()
-        javaScriptEngine = factory.getEngineByName('JavaScript')
+        byte[] digest = MessageDigest.getInstance('SHA-256').digest(myEncryptionKey.getBytes(unicodeFormat))
+        aeadKey = new SecretKeySpec(digest, 0, 16, 'AES')
+
+        try {
+            // GCMParameterSpec is resolved at runtime, so the plugin still compiles and runs on Java 7
+            gcmParameterSpec = Class.forName('javax.crypto.spec.GCMParameterSpec')
+            Cipher.getInstance(aeadScheme)
+        } catch (ClassNotFoundException | GeneralSecurityException e) {
+            gcmParameterSpec = null
+            log.warn("${aeadScheme} is not available, share links will be encrypted with ${encryptionScheme}")
+        }
+
+        aeadEnabled = gcmParameterSpec != null &&
+                Holders.config.grails.plugin.console.charts.encryption.scheme != encryptionScheme
     }
 
 }
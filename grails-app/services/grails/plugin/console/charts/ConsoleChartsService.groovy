@@ -21,15 +21,56 @@ import com.jcraft.jsch.Session
 import grails.converters.JSON
 import grails.util.Holders
 import org.codehaus.groovy.grails.web.json.JSONException
+import org.codehaus.groovy.grails.web.json.JSONWriter
 
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import javax.management.JMException
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
 import java.sql.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Future
 
 /**
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
  */
 class ConsoleChartsService {
 
-    def consoleService
+    static final int STREAM_CAPACITY = 16
+    static final int QUERY_LOG_TEXT = 2000
+    static final String CURSOR = 'cursor'
+    static final String AGGREGATE = 'aggregate'
+
+    def grailsApplication
+    def chartsEncryprionService
+
+    ChartsConnectionPool connectionPool
+    ChartsTunnelManager tunnelManager
+    ChartsResultCache resultCache
+    ChartsScriptCache scriptCache
+    ChartsResultCache pageCache
+    ChartsQueryExecutor queryExecutor
+    ChartsLiveHub liveHub
+    ChartsSnapshotStore snapshotStore
+    ChartsQueryLog queryLog
+    ChartsMetrics metrics = new ChartsMetrics()
+
+    Map<String, ChartsConnectionProvider> connectionProviders = [:]
+
+    int queryTimeout = 0
+
+    long maxRows = 0
+    long maxBytes = 0
+    long maxTime = 0
+
+    private ObjectName metricsName
+
+    private final Map<Connection, ChartsTunnelManager.Tunnel> tunnels =
+            new ConcurrentHashMap<Connection, ChartsTunnelManager.Tunnel>()
+    private final Map<Connection, ChartsConnectionProvider> providers =
+            new ConcurrentHashMap<Connection, ChartsConnectionProvider>()
 
     Session doSshTunnel(String host = 'localhost', int port = 22, String user, String password,
                         String remoteHost, int localPort, int nRemotePort) throws JSchException {
@@ -49,71 +90,152 @@ class ConsoleChartsService {
 
     Connection connectToMySql(String host = 'localhost', int port = 3306, String user = 'root',
                               String password = null) throws SQLException {
-        Properties info = new Properties()
+        connectionProviders.mysql.connect(host, port, null, user, password)
+    }
 
-        if (user != null)
-            info.put('user', user)
+    /**
+     * Returns provider of the <code>databaseType</code> of the connection details, MySQL if there is none.
+     */
+    ChartsConnectionProvider connectionProvider(json) throws SQLException {
+        String type = json?.databaseType ?: 'mysql'
+        ChartsConnectionProvider provider = connectionProviders[type]
 
-        if (password != null)
-            info.put('password', password)
+        if (provider == null)
+            throw new SQLException("Unsupported database type '${type}'")
 
-        Class.forName('com.mysql.jdbc.Driver')
+        provider
+    }
 
-        def con = DriverManager.getConnection("jdbc:mysql://${host}:${port}", info, Holders.grailsApplication.class)
-        con.autoCommit = false
-        con
+    /**
+     * Borrows pooled connection for the connection details, opening SSH tunnel if required.
+     */
+    Connection borrowConnection(json) throws SQLException, JSchException {
+        connectionPool.borrow(json.toString()) { openConnection(json) }
     }
 
-    List parse(ResultSet rs) {
-        def content = []
+    /**
+     * Borrows pooled connection for the connection details like {@link #borrowConnection}, returns null instead of
+     * waiting when the pool has none available.
+     */
+    Connection tryBorrowConnection(json) throws SQLException, JSchException {
+        connectionPool.tryBorrow(json.toString()) { openConnection(json) }
+    }
 
-        while (rs.next()) {
-            def item = [:]
-            for (int i = 1; i <= rs.metaData.getColumnCount(); i++) {
-                def value = i == 1 ? rs.getString(i) : null
+    /**
+     * Returns connection to the pool, or closes it when it is not reusable because it ran a stateful script.
+     */
+    void releaseConnection(Connection connection, boolean reusable = true) {
+        if (connection == null)
+            return
 
-                if (i > 1) {
-                    try {
-                        value = rs.getInt(i);
-                    } catch (e) {
-                        // ignore
-                    }
+        if (reusable)
+            connectionPool.release(connection)
+        else
+            connectionPool.invalidate(connection)
+    }
+
+    Connection openConnection(json) throws SQLException, JSchException {
+        ChartsConnectionProvider provider = connectionProvider(json)
+        String hostname = json.mysqlHostname ?: (provider.hostRequired ? 'localhost' : null)
+        Integer port = json.mysqlPort ?: provider.defaultPort
+
+        ChartsTunnelManager.Tunnel tunnel = null
+
+        if (json.sshToggle && hostname) {
+            String tunnelKey = [json.sshHostname, json.sshPort ?: 22, json.sshUsername, json.sshPassword,
+                                hostname, port].join('\u0000')
+            String remoteHostname = hostname
+            int remotePort = port
+
+            tunnel = tunnelManager.acquire(tunnelKey) {
+                metrics.time('ssh') {
+                    doSshTunnel(json.sshHostname, json.sshPort ?: 22, json.sshUsername,
+                            json.sshPassword, remoteHostname, 0, remotePort)
                 }
+            }
 
-                item[rs.metaData.getColumnLabel(i) ?: rs.metaData.getColumnName(i)] = value
+            hostname = 'localhost'
+            port = tunnel.localPort
+        }
+
+        try {
+            Connection connection = metrics.time('connect') {
+                provider.connect(hostname, port, json.database ?: null, json.mysqlUsername ?: null,
+                        json.mysqlPassword ?: null)
             }
 
-            content.add item
+            providers[connection] = provider
+
+            if (tunnel)
+                tunnels[connection] = tunnel
+
+            connection
+        } catch (SQLException e) {
+            tunnelManager.release(tunnel)
+            throw e
         }
+    }
 
-        content
+    /**
+     * Rewrites the query to return rows from the category given by the <code>since</code> parameter on, quoting the
+     * category column for the database of the connection string.
+     */
+    String withSince(String query, String connectionString, String column) {
+        def json = connectionString?.contains('{') ? JSON.parse(connectionString) : null
+
+        ChartsQueryPlan.withSince(query, column, connectionProviders[json?.databaseType ?: 'mysql'])
     }
 
-    List toList(ResultSet rs) {
+    List parse(ResultSet rs, Integer points = null) {
         def content = []
+        def decoder = new ChartsRowDecoder(rs.metaData)
 
-        while (rs.next()) {
-            def item = []
-            for (int i = 1; i <= rs.metaData.getColumnCount(); i++) {
-                def value = i == 1 ? rs.getString(i) : null
+        eachRow(rs, decoder, points, { decoder.readList(rs) }) { List row ->
+            content.add decoder.toMap(row)
+        }
 
-                if (i > 1) {
-                    try {
-                        value = rs.getInt(i)
-                    } catch (e) {
-                        value = rs.getString(i)
-                    }
-                }
+        content
+    }
 
-                item.add value
-            }
+    List toList(ResultSet rs, Integer points = null) {
+        def content = []
+        def decoder = new ChartsRowDecoder(rs.metaData)
 
-            content.add item
+        eachRow(rs, decoder, points, { decoder.readList(rs) }) { List row ->
+            content.add row
         }
 
         content
     }
 
+    /**
+     * Calls the closure with every row returned by the reader. When points is set and the category column is
+     * date/time or numeric, rows are downsampled to about that many points first, using the typed category value as x
+     * since the reader returns it as string.
+     */
+    void eachRow(ResultSet rs, ChartsRowDecoder decoder, Integer points, Closure<List> reader, Closure closure) {
+        long start = System.nanoTime()
+
+        try {
+            if (points && decoder.columnCount > 1 && decoder.isContinuous(0)) {
+                ChartsDownsampler downsampler = new ChartsDownsampler(points)
+
+                while (rs.next()) {
+                    double x = decoder.readCategoryX(rs)
+                    downsampler.add(x, reader.call())
+                }
+
+                downsampler.rows.each(closure)
+            } else {
+                while (rs.next()) {
+                    closure.call(reader.call())
+                }
+            }
+        } finally {
+            metrics.record('read', System.nanoTime() - start)
+        }
+    }
+
     List getColumns(ResultSet rs) {
         def result = []
 
@@ -126,61 +248,92 @@ class ConsoleChartsService {
         result
     }
 
-    def getData(String query, String connectionString, String appearance, request) {
-        query = query.trim()
-        if (appearance)
-            appearance = appearance.trim()
-
-        List<String> queries = query.split(';')
+    /**
+     * Returns chart data, served from the result cache when caching is enabled globally or with cacheTtl.
+     */
+    def getData(String query, String connectionString, String appearance, request, Long cacheTtl = null,
+                Integer points = null, Map parameters = null) {
+        long ttl = cacheTtl != null ? cacheTtl : resultCache.ttl
 
-        if (!connectionString.contains('{')) {
-            throw new JSONException('Connection string is not in JSON format')
+        // appearance scripts may read the request and session, so their results can't be shared
+        cached(query, connectionString, ['data', points, parameters], appearance ? 0 : ttl) {
+            executeQuery(query, connectionString, appearance, request, points, parameters)
         }
+    }
 
-        def json = JSON.parse(connectionString)
+    /**
+     * Returns result of the loader from the result cache, keyed by the query, connection and other key parts. Not
+     * cached when ttl is zero. Cache hits are recorded in the query log, executions by {@link #withResultSet}.
+     */
+    private Map cached(String query, String connectionString, List keyParts, long ttl, Closure<Map> loader) {
+        if (ttl <= 0)
+            return loader.call()
 
-        Session sshSession = null
+        String key = ([query, connectionString] + keyParts).collect { it instanceof Map ? it.sort() : it }
+                .join('\u0000').encodeAsSHA256()
+        boolean executed = false
+        long start = System.nanoTime()
 
-        String mysqlHostname = json.mysqlHostname ?: 'localhost'
-        Integer mysqlPort = json.mysqlPort ?: 3306
+        Map result = resultCache.get(key, ttl) {
+            executed = true
+            loader.call()
+        }
 
-        if (json.sshToggle) {
-            mysqlPort = 3369
-            mysqlHostname = 'localhost'
+        if (!executed && queryLog != null)
+            logQuery(query, connectionString, System.nanoTime() - start, (result.count ?: 0) as long, 0, true, null)
 
-            sshSession = doSshTunnel(json.sshHostname, json.sshPort ?: 22, json.sshUsername,
-                    json.sshPassword, json.mysqlHostname, mysqlPort, json.mysqlPort ?: 3306)
-        }
+        new LinkedHashMap(result)
+    }
 
-        try {
-            Connection connection =
-                    connectToMySql(mysqlHostname, mysqlPort, json.mysqlUsername, json.mysqlPassword)
+    /**
+     * Returns <code>type host:port/database</code> of the connection details, followed by the SSH host if tunneled.
+     */
+    String describeConnection(json) {
+        ChartsConnectionProvider provider = connectionProvider(json)
+        String hostname = json.mysqlHostname ?: (provider.hostRequired ? 'localhost' : null)
+        String address = hostname ? "${hostname}:${json.mysqlPort ?: provider.defaultPort}" : ''
 
-            Statement stmt = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE)
+        if (json.database)
+            address += "/${json.database}"
 
-            if (queries.size() > 1) {
-                queries.eachWithIndex { entry, i ->
-                    if (i != (queries.size() - 1))
-                        stmt.addBatch(entry)
-                }
+        "${provider.type} ${address}${json.sshToggle && hostname ? " via ${json.sshHostname}" : ''}"
+    }
 
-                stmt.executeBatch()
-                stmt.close()
+    private void logQuery(String query, String connectionString, long duration, long rows, long bytes, boolean cached,
+                          Throwable error) {
+        try {
+            def json = connectionString?.contains('{') ? JSON.parse(connectionString) : null
+            String host = json == null ? null : describeConnection(json)
+            ChartsSqlScript.Dialect dialect = json == null ? ChartsSqlScript.Dialect.MYSQL :
+                    connectionProvider(json).dialect
 
-                // re-init statement
-                stmt = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE)
-            }
+            queryLog.record(new ChartsQueryLog.Entry(time: System.currentTimeMillis(),
+                    fingerprint: ChartsSqlScript.normalize(query, dialect).encodeAsSHA256().substring(0, 16),
+                    query: query.length() > QUERY_LOG_TEXT ? query.substring(0, QUERY_LOG_TEXT) : query,
+                    host: host?.toString(), duration: duration, stages: metrics.requestTimings,
+                    rows: rows, bytes: bytes, cached: cached, error: error?.message ?: error?.class?.name))
+        } catch (e) {
+            log.warn("Can't record query log entry: ${e.message}")
+        }
+    }
 
-            ResultSet rs = stmt.executeQuery(queries.size() > 1 ? queries.last() : query)
+    def executeQuery(String query, String connectionString, String appearance, request, Integer points = null,
+                     Map parameters = null) {
+        if (appearance)
+            appearance = appearance.trim()
 
+        // appearance scripts may scroll, e.g. rs.last() to count rows
+        withResultSet(query, connectionString, parameters, appearance as boolean) { CountingResultSet rs ->
             def columns = null
             def content = null
             def override = null
 
             if (appearance) {
-                def bindingValues = [session: request.session, request: request, rs: rs, md: rs.metaData, base: this]
+                def bindingValues = [session: request?.session, request: request, rs: rs, md: rs.metaData, base: this,
+                                     grailsApplication: grailsApplication, ctx: grailsApplication.mainContext,
+                                     config: grailsApplication.config, log: log]
 
-                def result = consoleService.eval(appearance, true, bindingValues)
+                def result = metrics.time('appearance') { scriptCache.run(appearance, bindingValues) }
 
                 if (result instanceof Map) {
                     content = result.content
@@ -190,21 +343,777 @@ class ConsoleChartsService {
                     content = result
                 }
             } else {
-                content = parse(rs)
+                content = parse(rs, points)
+            }
+
+            [content: content, columns: columns ?: getColumns(rs), override: override, count: rs.count] +
+                    rs.truncation
+        }
+    }
+
+    /**
+     * Executes shared chart (link data <code>q</code>) for its snapshot. Appearance scripts run without request and
+     * session.
+     */
+    Map loadSnapshot(String q, Map parameters, Integer points) {
+        def json = JSON.parse(chartsEncryprionService.decrypt(q))
+        String connectionString = chartsEncryprionService.decrypt(json.connectionString)
+
+        queryExecutor.run("snapshot:${UUID.randomUUID()}".toString(), queryTimeout) {
+            executeQuery(json.query as String, connectionString, json.appearance as String, null, points,
+                    parameters)
+        }
+    }
+
+    /**
+     * Returns query result as <code>[columns: [...], rows: [[...], ...], continuous: boolean]</code> for live
+     * charts, continuous being true when the category column is date/time or numeric, with <code>truncated</code>
+     * and <code>cursor</code> when the row limit was reached.
+     */
+    Map getRows(String query, String connectionString, Map parameters = null, Integer points = null) {
+        withResultSet(query, connectionString, parameters) { CountingResultSet rs ->
+            ChartsRowDecoder decoder = new ChartsRowDecoder(rs.metaData)
+            List rows = []
+
+            eachRow(rs, decoder, points, { decoder.readList(rs) }) { List row ->
+                rows.add row
+            }
+
+            [columns: decoder.columns, rows: rows, continuous: decoder.isContinuous(0)] + rs.truncation
+        }
+    }
+
+    /**
+     * Writes query result directly to the writer as <code>{"columns": [...], "rows": [[...], ...], "count": n}</code>
+     * without materializing rows in memory. When points is set rows are downsampled, keeping at most a few points
+     * per target point in memory. With caching enabled the JSON is rendered to the result cache first.
+     */
+    void streamData(String query, String connectionString, Writer writer, Integer points = null,
+                    Map parameters = null, Long cacheTtl = null) {
+        long ttl = cacheTtl != null ? cacheTtl : resultCache.ttl
+
+        if (ttl <= 0) {
+            withResultSet(query, connectionString, parameters) { CountingResultSet rs ->
+                writeRows(rs, writer, points)
+            }
+
+            return
+        }
+
+        Map result = cached(query, connectionString, ['rows', points, parameters], ttl) {
+            StringWriter json = new StringWriter()
+            int count = 0
+
+            withResultSet(query, connectionString, parameters) { CountingResultSet rs ->
+                writeRows(rs, json, points)
+                count = rs.count
+            }
+
+            [json: json.toString(), count: count]
+        }
+
+        writer.write(result.json as String)
+        writer.flush()
+    }
+
+    void writeRows(CountingResultSet rs, Writer writer, Integer points = null) {
+        JSONWriter json = new JSONWriter(writer)
+        ChartsRowDecoder decoder = new ChartsRowDecoder(rs.metaData)
+
+        json.object().key('columns').array()
+        decoder.labels.each { json.value(it) }
+        json.endArray()
+
+        json.key('rows').array()
+
+        eachRow(rs, decoder, points, { decoder.readList(rs) }) { List row ->
+            json.array()
+            row.each { json.value(it) }
+            json.endArray()
+        }
+
+        json.endArray()
+        json.key('count').value(rs.count)
+
+        if (rs.limit?.truncated)
+            json.key('truncated').value(true).key('cursor').value(rs.limit.cursor)
+
+        json.endObject()
+
+        writer.flush()
+    }
+
+    /**
+     * Returns query result in columnar form: column names once and one array of values per column. With delta the
+     * date/time category column is encoded as differences in milliseconds between consecutive local wall clock
+     * times, first value relative to the epoch. Served from the result cache when caching is enabled.
+     */
+    Map getColumnarData(String query, String connectionString, boolean delta, Integer points = null,
+                        Map parameters = null, Long cacheTtl = null) {
+        cached(query, connectionString, ['columnar', delta, points, parameters],
+                cacheTtl != null ? cacheTtl : resultCache.ttl) {
+            withResultSet(query, connectionString, parameters) { CountingResultSet rs ->
+                toColumnar(rs, delta, points)
+            }
+        }
+    }
+
+    Map toColumnar(CountingResultSet rs, boolean delta, Integer points = null) {
+        ChartsRowDecoder decoder = new ChartsRowDecoder(rs.metaData)
+
+        int columnCount = decoder.columnCount
+        boolean deltaCategory = delta && decoder.isTemporal(0)
+        List<List> values = (0..<columnCount).collect { [] }
+        TimeZone timeZone = TimeZone.default
+        long previous = 0
+
+        Closure<List> reader = { decoder.readList(rs) }
+
+        if (deltaCategory) {
+            reader = {
+                Timestamp timestamp = rs.getTimestamp(1)
+                List row = [timestamp != null ? timestamp.time + timeZone.getOffset(timestamp.time) : null]
+
+                for (int i = 1; i < columnCount; i++) {
+                    row.add decoder.read(rs, i)
+                }
+
+                row
+            }
+        }
+
+        eachRow(rs, decoder, points, reader) { List row ->
+            if (deltaCategory && row[0] != null) {
+                values[0].add(row[0] - previous)
+                previous = row[0]
+            } else {
+                values[0].add(row[0])
+            }
+
+            for (int i = 1; i < columnCount; i++) {
+                values[i].add(row[i])
+            }
+        }
+
+        [columns : decoder.columns, values: values, category: deltaCategory ? 'delta' : 'plain',
+         count   : rs.count, points: values[0].size()] + rs.truncation
+    }
+
+    /**
+     * Executes the query script and calls the closure with a forward-only, read-only result set. Setup statements run
+     * in one batch on a pooled connection, followed by the chart query; the connection of a script leaving session
+     * state behind is closed afterwards (see {@link ChartsQueryPlan#isStateful}). Scripts ending with several SELECT
+     * statements are charted as one dataset merged by category; independent SELECTs run in parallel on their own
+     * connections (see {@link ChartsQueryPlan}). Rows are fetched in batches of the connection provider's
+     * {@link ChartsConnectionProvider#getFetchSize fetch size}. Statements are registered with {@link #queryExecutor},
+     * so queries started by it can be cancelled. Named parameters (<code>:name</code>) are bound from the parameters
+     * map, missing ones as null.
+     */
+    def withResultSet(String query, String connectionString, Closure closure) {
+        withResultSet(query, connectionString, null, closure)
+    }
+
+    def withResultSet(String query, String connectionString, Map parameters, Closure closure) {
+        withResultSet(query, connectionString, parameters, false, closure)
+    }
+
+    /**
+     * Scrollable result sets are read whole by the driver; merged and aggregated rows are held in memory. Every
+     * execution is recorded in the query log.
+     */
+    def withResultSet(String query, String connectionString, Map parameters, boolean scrollable, Closure closure) {
+        if (queryLog == null)
+            return executeScript(query, connectionString, parameters, scrollable, closure)
+
+        boolean collecting = metrics.collecting
+        long start = System.nanoTime()
+        CountingResultSet counted = null
+        def result = null
+        Throwable error = null
+
+        if (!collecting)
+            metrics.beginRequest()
+
+        try {
+            result = executeScript(query, connectionString, parameters, scrollable) { CountingResultSet rs ->
+                counted = rs
+                closure.call(rs)
+            }
+        } catch (e) {
+            error = e
+            throw e
+        } finally {
+            logQuery(query, connectionString, System.nanoTime() - start, counted?.count ?: 0,
+                    result instanceof Map ? ChartsResultCache.estimateSize(result) : 0, false, error)
+
+            if (!collecting)
+                metrics.endRequest()
+        }
+    }
+
+    private def executeScript(String query, String connectionString, Map parameters, boolean scrollable,
+                              Closure closure) {
+        if (!connectionString.contains('{')) {
+            throw new JSONException('Connection string is not in JSON format')
+        }
+
+        def json = JSON.parse(connectionString)
+        ChartsQueryPlan plan = ChartsQueryPlan.plan(query, connectionProvider(json).dialect)
+
+        if (!plan.selects) {
+            throw new SQLException('Query is empty')
+        }
+
+        int timeout = effectiveTimeout(queryExecutor.timeout)
+        def cursor = parameters?.get(CURSOR)
+        ChartsRowLimit limit = new ChartsRowLimit(maxRows, maxBytes, maxTime, cursor ? cursor as long : 0L)
+        String aggregate = parameters?.get(AGGREGATE)
+        ChartsAggregator aggregator = aggregate ? ChartsAggregator.parse(aggregate) : null
+
+        if (plan.multiple)
+            return withMergedResultSet(json, plan, parameters, timeout, limit, aggregator, scrollable, closure)
+
+        Connection connection = borrowConnection(json)
+
+        try {
+            executeSetup(connection, plan.setup, parameters, timeout)
+
+            // limits of aggregated charts apply to the buckets
+            int statementMaxRows = aggregator ? 0 : limit.statementMaxRows
+
+            executeSelect(connection, plan.selects[0], parameters, timeout, statementMaxRows,
+                    scrollable && !aggregator) { ResultSet rs ->
+                ResultSet source = aggregator ? aggregateRows(aggregator, rs, scrollable) : rs
+                CountingResultSet counting = new CountingResultSet(source, limit)
+
+                try {
+                    closure.call(counting)
+                } finally {
+                    metrics.increment('rows', counting.count)
+                }
+            }
+        } finally {
+            releaseConnection(connection, !plan.stateful)
+        }
+    }
+
+    /**
+     * Runs every SELECT of the plan ordered by its category and merge-joins the series while they are read.
+     * The setup connection is borrowed first. Independent series stream through bounded buffers from their own
+     * connections, borrowed only while the pool has free ones, so a merge never waits for connections held by itself
+     * or by other merges; they are forked to the statement pool while it has free threads, the others are read
+     * directly by the merge, so a busy pool never blocks it. Series depending on the setup, independent ones the
+     * pool has no connection for and, without dependent series, the first one are run one after another on the setup
+     * connection, all but the last one buffered. Series with categories which can't be compared are merged in memory
+     * instead.
+     */
+    private def withMergedResultSet(json, ChartsQueryPlan plan, Map parameters, int timeout, ChartsRowLimit limit,
+                                    ChartsAggregator aggregator, boolean scrollable, Closure closure) {
+        int count = plan.selects.size()
+
+        List<ChartsSeriesStream> streams = [null] * count
+        List<Connection> connections = []
+        Map<ResultSet, ChartsSeriesStream> opened = [:]
+        Connection main = null
+
+        // series written by the merge thread itself are buffered whole
+        Closure<ChartsSeriesStream> createStream = { int i, boolean buffered ->
+            streams[i] = new ChartsSeriesStream(buffered ? 0 : STREAM_CAPACITY, timeout * 1000L)
+            queryExecutor.register(streams[i])
+            streams[i]
+        }
+
+        try {
+            main = borrowConnection(json)
+
+            // series run on the setup connection: dependent ones, the first one if there are none, and those the pool
+            // has no free connection for
+            boolean dependent = (0..<count).any { !plan.independent[it] }
+            List<Integer> local = []
+
+            for (int i = 0; i < count; i++) {
+                Connection connection = plan.independent[i] && (dependent || i > 0) ? tryBorrowConnection(json) : null
+
+                if (connection == null) {
+                    local << i
+                    continue
+                }
+
+                ChartsSeriesStream series = createStream(i, false)
+                String select = plan.orderByCategory(plan.selects[i])
+                Future forked = null
+
+                try {
+                    forked = queryExecutor.fork {
+                        try {
+                            try {
+                                executeSelect(connection, select, parameters, timeout, 0, false) { ResultSet rs ->
+                                    writeSeries(rs, series)
+                                }
+                            } finally {
+                                releaseConnection(connection)
+                            }
+                        } catch (Throwable e) {
+                            series.fail(e)
+                        }
+                    }
+                } finally {
+                    if (forked == null)
+                        connections << connection
+                }
+
+                if (forked == null) {
+                    ResultSet rs = openSelect(connection, select, parameters, timeout, 0)
+                    opened[rs] = series
+                    series.open(rs)
+                }
+            }
+
+            executeSetup(main, plan.setup, parameters, timeout)
+
+            local.each { int i ->
+                String select = plan.orderByCategory(plan.selects[i])
+                ChartsSeriesStream series = createStream(i, i != local.last())
+
+                if (i == local.last()) {
+                    ResultSet rs = openSelect(main, select, parameters, timeout, 0)
+                    opened[rs] = series
+                    series.open(rs)
+                } else {
+                    executeSelect(main, select, parameters, timeout, 0, false) { ResultSet rs ->
+                        series.write(rs)
+                    }
+                }
+            }
+
+            ChartsMergeJoin join = new ChartsMergeJoin(streams)
+            boolean scrollMerged = scrollable && !aggregator
+            MergedResultSet rs
+
+            if (join.sortable) {
+                rs = mergedResultSet(join.metaData, scrollMerged, { join.next() })
+            } else {
+                ChartsSeriesMerger merger = new ChartsSeriesMerger(streams*.drain())
+                Iterator<Object[]> rows = merger.rows.iterator()
+
+                rs = mergedResultSet(merger.metaData, scrollMerged, { rows.hasNext() ? rows.next() : null })
+            }
+
+            CountingResultSet counting = new CountingResultSet(
+                    aggregator ? aggregateRows(aggregator, rs, scrollable) : rs, limit)
+
+            try {
+                closure.call(counting)
+            } finally {
+                metrics.increment('rows', counting.count)
+                rs.close()
+            }
+        } finally {
+            // closed streams stop their producers, which cancel their statements
+            streams.findAll().each { ChartsSeriesStream series ->
+                queryExecutor.unregister(series)
+                series.close()
+            }
+
+            opened.each { ResultSet rs, ChartsSeriesStream stream ->
+                // stop the query instead of reading the rest of a streamed result
+                if (!stream.finished) {
+                    try {
+                        rs.statement.cancel()
+                    } catch (SQLException e) {
+                        log.debug("Can't cancel series statement: ${e.message}")
+                    }
+                }
+
+                closeSelect(rs)
+            }
+
+            connections.each { releaseConnection(it) }
+            releaseConnection(main, !plan.stateful)
+        }
+    }
+
+    /**
+     * Reads the whole result set into time buckets, returns result set over the buckets.
+     */
+    private ResultSet aggregateRows(ChartsAggregator aggregator, ResultSet rs, boolean scrollable) {
+        metrics.time('aggregate') { aggregator.aggregate(rs) }
+        metrics.increment('rows.aggregated', aggregator.rows)
+
+        mergedResultSet(aggregator.metaData, scrollable, { aggregator.next() })
+    }
+
+    private static MergedResultSet mergedResultSet(ResultSetMetaData metaData, boolean scrollable,
+                                                   Closure<Object[]> reader) {
+        scrollable ? MergedResultSet.scrollable(metaData, reader) : new MergedResultSet(metaData, reader)
+    }
+
+    private void writeSeries(ResultSet rs, ChartsSeriesStream stream) {
+        try {
+            stream.write(rs)
+        } catch (CancellationException e) {
+            // merge has ended, stop the query instead of reading the rest of a streamed result
+            rs.statement.cancel()
+            throw e
+        }
+    }
+
+    private void executeSetup(Connection connection, List<String> setup, Map parameters, int timeout) {
+        if (!setup)
+            return
+
+        // statements with parameters can't be batched as one statement
+        if (setup.any { ChartsSqlScript.parameters(it, dialect(connection)) }) {
+            setup.each { String sql ->
+                PreparedStatement stmt = prepare(connection, sql, parameters, false)
+
+                try {
+                    stmt.queryTimeout = timeout
+                    queryExecutor.register(stmt)
+
+                    metrics.time('setup') { stmt.execute() }
+                } finally {
+                    queryExecutor.unregister(stmt)
+                    stmt.close()
+                }
             }
 
-            rs.last()
+            return
+        }
+
+        Statement stmt = connection.createStatement()
+
+        try {
+            stmt.queryTimeout = timeout
+            queryExecutor.register(stmt)
+
+            setup.each { stmt.addBatch(it) }
+
+            metrics.time('setup') { stmt.executeBatch() }
+        } finally {
+            queryExecutor.unregister(stmt)
+            stmt.close()
+        }
+    }
+
+    /**
+     * Executes the SELECT and calls the closure with its result set. Max rows of zero is no limit; series of merged
+     * scripts are read whole and limited after the merge.
+     */
+    private def executeSelect(Connection connection, String query, Map parameters, int timeout, int maxRows,
+                              boolean scrollable, Closure closure) {
+        ResultSet rs = openSelect(connection, query, parameters, timeout, maxRows, scrollable)
+
+        try {
+            closure.call(rs)
+        } finally {
+            closeSelect(rs)
+        }
+    }
+
+    /**
+     * Executes the SELECT and returns its result set, to be closed with {@link #closeSelect} by the same thread.
+     */
+    private ResultSet openSelect(Connection connection, String query, Map parameters, int timeout, int maxRows,
+                                 boolean scrollable = false) {
+        boolean prepared = ChartsSqlScript.parameters(query, dialect(connection)) as boolean
+        int type = scrollable ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY
+        Statement stmt = prepared ? prepare(connection, query, parameters, true, type) :
+                connection.createStatement(type, ResultSet.CONCUR_READ_ONLY)
+
+        try {
+            // scrollable results can't be streamed
+            stmt.fetchSize = scrollable ? 0 : providers[connection]?.fetchSize ?: 0
+            stmt.queryTimeout = timeout
+            stmt.maxRows = maxRows
+            queryExecutor.register(stmt)
+
+            metrics.time('query') {
+                prepared ? ((PreparedStatement) stmt).executeQuery() : stmt.executeQuery(query)
+            }
+        } catch (e) {
+            queryExecutor.unregister(stmt)
+            stmt.close()
+            throw e
+        }
+    }
+
+    private void closeSelect(ResultSet rs) {
+        Statement stmt = rs.statement
 
-            def result = [content: content, columns: columns ?: getColumns(rs), override: override, count: rs.row]
+        queryExecutor.unregister(stmt)
 
+        try {
+            stmt.close()
+        } catch (SQLException e) {
+            // rows have been read, e.g. a statement cancelled on truncation fails to drain
+            log.debug("Can't close statement: ${e.message}")
+        }
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql, Map parameters, boolean readOnly,
+                                      int type = ResultSet.TYPE_FORWARD_ONLY) {
+        List<String> names = []
+        String positional = ChartsSqlScript.toPositional(sql, names, dialect(connection))
+
+        PreparedStatement stmt = readOnly ?
+                connection.prepareStatement(positional, type, ResultSet.CONCUR_READ_ONLY) :
+                connection.prepareStatement(positional)
+
+        try {
+            names.eachWithIndex { String name, int i ->
+                stmt.setObject(i + 1, parameters?.get(name))
+            }
+        } catch (SQLException e) {
             stmt.close()
-            connection.close()
+            throw e
+        }
+
+        stmt
+    }
+
+    private ChartsSqlScript.Dialect dialect(Connection connection) {
+        providers[connection]?.dialect ?: ChartsSqlScript.Dialect.MYSQL
+    }
+
+    /**
+     * Returns the requested timeout in seconds limited by the configured queryTimeout.
+     */
+    int effectiveTimeout(int requested) {
+        if (requested > 0 && queryTimeout > 0)
+            return Math.min(requested, queryTimeout)
+
+        requested > 0 ? requested : queryTimeout
+    }
+
+    /**
+     * Registers the built-in providers followed by the ones found with {@link ServiceLoader}, which replace built-in
+     * providers of the same type.
+     */
+    private void initConnectionProviders(chartsConfig) {
+        List<ChartsConnectionProvider> list = [new ChartsMySqlConnectionProvider(),
+                                               new ChartsPostgreSqlConnectionProvider(),
+                                               new ChartsH2ConnectionProvider()]
+
+        ChartsMySqlConnectionProvider mysql = (ChartsMySqlConnectionProvider) list[0]
+
+        mysql.useCursorFetch = chartsConfig.useCursorFetch as boolean
+
+        if (chartsConfig.fetchSize)
+            mysql.fetchSize = chartsConfig.fetchSize as int
+        else if (mysql.useCursorFetch)
+            mysql.fetchSize = 1000
+
+        def prepConfig = chartsConfig.preparedStatements
+
+        if (prepConfig.serverSide == false)
+            mysql.serverPrepStmts = false
+        if (prepConfig.cacheSize)
+            mysql.prepStmtCacheSize = prepConfig.cacheSize as int
+        if (prepConfig.cacheSqlLimit)
+            mysql.prepStmtCacheSqlLimit = prepConfig.cacheSqlLimit as int
+
+        ChartsH2ConnectionProvider h2 = (ChartsH2ConnectionProvider) list[2]
+        def h2Config = chartsConfig.databases.h2
+
+        h2.embedded = h2Config.embedded as boolean
+
+        if (h2Config.paths)
+            h2.paths = h2Config.paths.collect { it as String }
+
+        ServiceLoader.load(ChartsConnectionProvider, grailsApplication.classLoader).each { list << it }
+
+        list.each { ChartsConnectionProvider provider ->
+            def providerConfig = chartsConfig.databases[provider.type]
+
+            if (providerConfig.fetchSize && provider instanceof ChartsJdbcConnectionProvider)
+                provider.fetchSize = providerConfig.fetchSize as int
+
+            connectionProviders[provider.type] = provider
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        def chartsConfig = Holders.config.grails.plugin.console.charts
+
+        initConnectionProviders(chartsConfig)
+
+        if (chartsConfig.queryTimeout)
+            queryTimeout = chartsConfig.queryTimeout as int
+
+        def limitsConfig = chartsConfig.limits
+
+        if (limitsConfig.maxRows)
+            maxRows = limitsConfig.maxRows as long
+        if (limitsConfig.maxBytes)
+            maxBytes = limitsConfig.maxBytes as long
+        if (limitsConfig.maxTime)
+            maxTime = limitsConfig.maxTime as long
+
+        def config = chartsConfig.pool
+
+        connectionPool = new ChartsConnectionPool()
 
-            return result
+        if (config.maxPerKey)
+            connectionPool.maxPerKey = config.maxPerKey as int
+        if (config.maxTotal)
+            connectionPool.maxTotal = config.maxTotal as int
+        if (config.idleTimeout)
+            connectionPool.idleTimeout = config.idleTimeout as long
+        if (config.borrowTimeout)
+            connectionPool.borrowTimeout = config.borrowTimeout as long
+        if (config.validationTimeout)
+            connectionPool.validationTimeout = config.validationTimeout as int
+
+        connectionPool.closeListener = { Connection connection ->
+            providers.remove(connection)
+            tunnelManager.release(tunnels.remove(connection))
         }
-        finally {
-            sshSession?.disconnect()
+        connectionPool.start()
+
+        def sshConfig = Holders.config.grails.plugin.console.charts.ssh
+
+        tunnelManager = new ChartsTunnelManager()
+
+        if (sshConfig.idleTimeout)
+            tunnelManager.idleTimeout = sshConfig.idleTimeout as long
+        if (sshConfig.keepAliveInterval)
+            tunnelManager.keepAliveInterval = sshConfig.keepAliveInterval as int
+        if (sshConfig.keepAliveCountMax)
+            tunnelManager.keepAliveCountMax = sshConfig.keepAliveCountMax as int
+
+        tunnelManager.start()
+
+        def cacheConfig = Holders.config.grails.plugin.console.charts.cache
+
+        resultCache = new ChartsResultCache()
+
+        if (cacheConfig.ttl)
+            resultCache.ttl = cacheConfig.ttl as long
+        if (cacheConfig.maxBytes)
+            resultCache.maxBytes = cacheConfig.maxBytes as long
+
+        scriptCache = new ChartsScriptCache(parentClassLoader: grailsApplication.classLoader,
+                imports: grailsApplication.domainClasses*.fullName)
+
+        def viewConfig = Holders.config.grails.plugin.console.charts.view
+
+        pageCache = new ChartsResultCache()
+
+        if (viewConfig.cacheTtl)
+            pageCache.ttl = viewConfig.cacheTtl as long
+        if (viewConfig.maxBytes)
+            pageCache.maxBytes = viewConfig.maxBytes as long
+
+        def asyncConfig = chartsConfig.async
+
+        queryExecutor = new ChartsQueryExecutor()
+
+        if (asyncConfig.poolSize)
+            queryExecutor.poolSize = asyncConfig.poolSize as int
+        if (asyncConfig.queueSize)
+            queryExecutor.queueSize = asyncConfig.queueSize as int
+        if (asyncConfig.parallelism)
+            queryExecutor.parallelism = asyncConfig.parallelism as int
+
+        queryExecutor.start()
+
+        def liveConfig = chartsConfig.live
+
+        liveHub = new ChartsLiveHub()
+
+        if (liveConfig.poolSize)
+            liveHub.poolSize = liveConfig.poolSize as int
+        if (liveConfig.maxChannels)
+            liveHub.maxChannels = liveConfig.maxChannels as int
+        if (liveConfig.minInterval)
+            liveHub.minInterval = liveConfig.minInterval as long
+
+        liveHub.loader = { String query, String connectionString, Map parameters, Integer points ->
+            queryExecutor.run("live:${UUID.randomUUID()}".toString(), queryTimeout) {
+                getRows(query, connectionString, parameters, points)
+            }
+        }
+        liveHub.incrementalQuery = { String query, String connectionString, String column ->
+            withSince(query, connectionString, column)
         }
+        liveHub.start()
+
+        def snapshotConfig = chartsConfig.snapshot
+
+        snapshotStore = new ChartsSnapshotStore()
+
+        if (snapshotConfig.dir)
+            snapshotStore.directory = new File(snapshotConfig.dir as String)
+        if (snapshotConfig.checkInterval)
+            snapshotStore.checkInterval = snapshotConfig.checkInterval as long
+        if (snapshotConfig.idleTimeout)
+            snapshotStore.idleTimeout = snapshotConfig.idleTimeout as long
+        if (snapshotConfig.maxCharts)
+            snapshotStore.maxCharts = snapshotConfig.maxCharts as int
+
+        snapshotStore.loader = { String q, Map parameters, Integer points -> loadSnapshot(q, parameters, points) }
+        snapshotStore.start()
+
+        if (cacheConfig.maxScripts)
+            scriptCache.maxSize = cacheConfig.maxScripts as int
+
+        def queryLogConfig = chartsConfig.queryLog
+
+        if (queryLogConfig.enabled != false) {
+            queryLog = new ChartsQueryLog()
+
+            if (queryLogConfig.file)
+                queryLog.file = new File(queryLogConfig.file as String)
+            if (queryLogConfig.capacity)
+                queryLog.capacity = queryLogConfig.capacity as int
+            if (queryLogConfig.flushInterval)
+                queryLog.flushInterval = queryLogConfig.flushInterval as long
+            if (queryLogConfig.maxFileSize)
+                queryLog.maxFileSize = queryLogConfig.maxFileSize as long
+            if (queryLogConfig.maxFiles)
+                queryLog.maxFiles = queryLogConfig.maxFiles as int
+
+            queryLog.start()
+        }
+
+        metrics.gauge('cache.hits') { resultCache.hits.get() }
+        metrics.gauge('cache.misses') { resultCache.misses.get() }
+        metrics.gauge('page.hits') { pageCache.hits.get() }
+        metrics.gauge('page.misses') { pageCache.misses.get() }
+        metrics.gauge('script.hits') { scriptCache.hits.get() }
+        metrics.gauge('script.misses') { scriptCache.misses.get() }
+        metrics.gauge('tunnel.reused') { tunnelManager.stats.reused }
+        metrics.gauge('tunnel.reconnects') { tunnelManager.stats.reconnects }
+        metrics.gauge('pool.total') { connectionPool.stats.total }
+        metrics.gauge('pool.borrowed') { connectionPool.stats.borrowed }
+        metrics.gauge('queries.active') { queryExecutor.stats.active }
+        metrics.gauge('queries.queued') { queryExecutor.stats.queued }
+
+        if (chartsConfig.metrics.jmx != false) {
+            try {
+                metricsName = new ObjectName("grails.plugin.console.charts:type=Metrics,application=" +
+                        ObjectName.quote(grailsApplication.metadata['app.name'] ?: 'console-charts'))
+                ManagementFactory.platformMBeanServer.registerMBean(metrics, metricsName)
+            } catch (JMException e) {
+                metricsName = null
+                log.warn("Can't register chart metrics MBean: ${e.message}")
+            }
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        if (metricsName != null)
+            ManagementFactory.platformMBeanServer.unregisterMBean(metricsName)
+
+        queryLog?.shutdown()
+        snapshotStore?.shutdown()
+        liveHub?.shutdown()
+        queryExecutor?.shutdown()
+        connectionPool?.shutdown()
+        tunnelManager?.shutdown()
     }
 
 }
\ No newline at end of file
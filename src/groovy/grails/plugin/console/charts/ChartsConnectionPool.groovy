@@ -0,0 +1,327 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import groovy.util.logging.Log4j
+
+import java.sql.Connection
+import java.sql.SQLException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Bounded pool of JDBC connections keyed by connection details. Idle connections are validated on borrow and
+ * evicted after {@link #idleTimeout} milliseconds.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Log4j
+class ChartsConnectionPool {
+
+    int maxPerKey = 5
+    int maxTotal = 50
+    long idleTimeout = 300000
+    long borrowTimeout = 30000
+    int validationTimeout = 5
+
+    /**
+     * Called with every physical connection closed by the pool.
+     */
+    Closure closeListener
+
+    private final Map<String, LinkedList<PooledEntry>> idle = [:]
+    private final Map<Connection, String> borrowed = new IdentityHashMap<Connection, String>()
+    private final Map<String, Integer> opened = [:]
+    private int total = 0
+    private boolean closed = false
+
+    private ScheduledExecutorService evictor
+
+    void start() {
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, 'console-charts-pool-evictor')
+                thread.daemon = true
+                thread
+            }
+        })
+
+        long period = Math.max(1000L, (long) (idleTimeout / 2))
+        evictor.scheduleWithFixedDelay({ evictIdle() } as Runnable, period, period, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Borrows connection for the given key, opening a new one with the factory when no idle connection is
+     * available and limits allow it. Waits up to {@link #borrowTimeout} milliseconds when limits are reached.
+     */
+    Connection borrow(String key, Closure<Connection> factory) throws SQLException {
+        borrow(key, borrowTimeout, factory)
+    }
+
+    /**
+     * Borrows connection for the given key like {@link #borrow(String, Closure)}, but returns null instead of
+     * waiting when limits are reached.
+     */
+    Connection tryBorrow(String key, Closure<Connection> factory) throws SQLException {
+        borrow(key, 0, factory)
+    }
+
+    private Connection borrow(String key, long timeout, Closure<Connection> factory) throws SQLException {
+        long deadline = System.currentTimeMillis() + timeout
+
+        while (true) {
+            PooledEntry entry = null
+            Connection evicted = null
+            boolean create = false
+
+            synchronized (this) {
+                LinkedList<PooledEntry> entries = idle[key]
+
+                if (entries) {
+                    entry = entries.removeFirst()
+                } else if ((opened[key] ?: 0) < maxPerKey) {
+                    if (total >= maxTotal)
+                        evicted = evictOldestIdle()
+
+                    if (total < maxTotal) {
+                        opened[key] = (opened[key] ?: 0) + 1
+                        total++
+                        create = true
+                    }
+                }
+
+                if (!entry && !create) {
+                    if (timeout <= 0)
+                        return null
+
+                    long remaining = deadline - System.currentTimeMillis()
+
+                    if (remaining <= 0)
+                        throw new SQLException("Timeout waiting for connection from pool (max per key: ${maxPerKey}, max total: ${maxTotal})")
+
+                    this.wait(remaining)
+                    continue
+                }
+            }
+
+            closeQuietly(evicted)
+
+            if (entry) {
+                if (isValid(entry.connection)) {
+                    markBorrowed(entry.connection, key)
+                    return entry.connection
+                }
+
+                discard(key, entry.connection)
+                continue
+            }
+
+            Connection connection = null
+            try {
+                connection = factory.call()
+            } finally {
+                if (connection == null)
+                    released(key)
+            }
+
+            markBorrowed(connection, key)
+            return connection
+        }
+    }
+
+    /**
+     * Returns connection to the pool, rolling back any uncommitted work. Session state (temporary tables, variables,
+     * settings) is kept, so connections which changed it have to be {@link #invalidate invalidated} instead.
+     */
+    void release(Connection connection) {
+        String key
+
+        synchronized (this) {
+            key = borrowed.remove(connection)
+        }
+
+        if (key == null || closed) {
+            closeQuietly(connection)
+            return
+        }
+
+        try {
+            if (connection.isClosed()) {
+                discard(key, connection)
+                return
+            }
+
+            if (!connection.autoCommit)
+                connection.rollback()
+        } catch (SQLException e) {
+            log.debug("Discarding broken connection for ${key}", e)
+            discard(key, connection)
+            return
+        }
+
+        synchronized (this) {
+            LinkedList<PooledEntry> entries = idle[key]
+
+            if (entries == null) {
+                entries = new LinkedList<PooledEntry>()
+                idle[key] = entries
+            }
+
+            entries.addFirst(new PooledEntry(connection: connection, lastUsed: System.currentTimeMillis()))
+            notifyAll()
+        }
+    }
+
+    /**
+     * Closes borrowed connection without returning it to the pool.
+     */
+    void invalidate(Connection connection) {
+        String key
+
+        synchronized (this) {
+            key = borrowed.remove(connection)
+        }
+
+        if (key != null)
+            discard(key, connection)
+        else
+            closeQuietly(connection)
+    }
+
+    void evictIdle() {
+        long threshold = System.currentTimeMillis() - idleTimeout
+        List<Connection> expired = []
+
+        synchronized (this) {
+            idle.each { String key, LinkedList<PooledEntry> entries ->
+                Iterator<PooledEntry> it = entries.iterator()
+
+                while (it.hasNext()) {
+                    PooledEntry entry = it.next()
+
+                    if (entry.lastUsed < threshold) {
+                        it.remove()
+                        expired.add entry.connection
+                        decrement(key)
+                    }
+                }
+            }
+
+            idle.keySet().removeAll(idle.findAll { it.value.isEmpty() }.keySet())
+
+            if (expired)
+                notifyAll()
+        }
+
+        expired.each { closeQuietly(it) }
+    }
+
+    void shutdown() {
+        evictor?.shutdownNow()
+
+        List<Connection> connections = []
+
+        synchronized (this) {
+            idle.values().each { entries -> entries.each { connections.add it.connection } }
+            idle.clear()
+            closed = true
+        }
+
+        connections.each { closeQuietly(it) }
+    }
+
+    synchronized Map getStats() {
+        [total: total, borrowed: borrowed.size(), idle: idle.values().sum { it.size() } ?: 0, keys: opened.size()]
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(validationTimeout)
+        } catch (SQLException | AbstractMethodError e) {
+            return false
+        }
+    }
+
+    private synchronized void markBorrowed(Connection connection, String key) {
+        borrowed[connection] = key
+    }
+
+    private void discard(String key, Connection connection) {
+        closeQuietly(connection)
+        released(key)
+    }
+
+    private synchronized void released(String key) {
+        decrement(key)
+        notifyAll()
+    }
+
+    private void decrement(String key) {
+        int count = (opened[key] ?: 0) - 1
+
+        if (count > 0)
+            opened[key] = count
+        else
+            opened.remove(key)
+
+        total--
+    }
+
+    /**
+     * Frees a slot for another key by removing the least recently used idle connection, returns it or null if there
+     * is none. Caller must hold the lock and close the connection after releasing it, so a slow close (e.g. over a
+     * dead SSH tunnel) doesn't block other borrows and releases.
+     */
+    private Connection evictOldestIdle() {
+        String oldestKey = null
+        PooledEntry oldest = null
+
+        idle.each { String key, LinkedList<PooledEntry> entries ->
+            if (entries && (oldest == null || entries.last.lastUsed < oldest.lastUsed)) {
+                oldest = entries.last
+                oldestKey = key
+            }
+        }
+
+        if (!oldest)
+            return null
+
+        idle[oldestKey].removeLast()
+        decrement(oldestKey)
+
+        oldest.connection
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection?.close()
+        } catch (SQLException ignored) {
+            // ignore
+        } finally {
+            if (connection != null)
+                closeListener?.call(connection)
+        }
+    }
+
+    private static class PooledEntry {
+        Connection connection
+        long lastUsed
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import java.sql.Connection
+import java.sql.SQLException
+
+/**
+ * Opens connections to one kind of database, chosen by the <code>databaseType</code> of the connection details.
+ * Besides the built-in MySQL, PostgreSQL and H2 providers, implementations listed in
+ * <code>META-INF/services/grails.plugin.console.charts.ChartsConnectionProvider</code> are loaded with
+ * {@link ServiceLoader}.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+interface ChartsConnectionProvider {
+
+    /**
+     * Returns the <code>databaseType</code> served by the provider, e.g. <code>mysql</code>.
+     */
+    String getType()
+
+    int getDefaultPort()
+
+    /**
+     * Returns false for databases which can be opened without a server (embedded), so SSH tunnels don't apply.
+     */
+    boolean isHostRequired()
+
+    /**
+     * Opens connection with auto-commit disabled. Host is null for embedded databases.
+     */
+    Connection connect(String host, int port, String database, String user, String password) throws SQLException
+
+    /**
+     * Returns fetch size of chart queries, which makes the driver stream rows instead of reading the whole result.
+     */
+    int getFetchSize()
+
+    String quoteIdentifier(String identifier)
+
+    /**
+     * Returns the dialect chart scripts are split and scanned for named parameters with.
+     */
+    ChartsSqlScript.Dialect getDialect()
+
+}
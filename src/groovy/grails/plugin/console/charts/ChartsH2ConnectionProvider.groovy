@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import java.sql.SQLException
+
+/**
+ * H2 through a TCP server, or embedded when enabled with {@link #embedded}. An embedded database runs inside the
+ * application, so are the chart queries on it: only existing file databases within {@link #paths} are opened, and
+ * in-memory databases (<code>mem:name</code>) only if <code>mem:</code> is one of the paths.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsH2ConnectionProvider extends ChartsJdbcConnectionProvider {
+
+    boolean embedded = false
+    List<String> paths = []
+
+    final String type = 'h2'
+    final int defaultPort = 9092
+    final String driverClassName = 'org.h2.Driver'
+
+    @Override
+    boolean isHostRequired() {
+        !embedded
+    }
+
+    @Override
+    String getUrl(String host, int port, String database) throws SQLException {
+        host ? "jdbc:h2:tcp://${host}:${port}/${database ?: ''}" : "jdbc:h2:${embeddedDatabase(database)}"
+    }
+
+    private String embeddedDatabase(String database) throws SQLException {
+        if (!embedded)
+            throw new SQLException('Embedded H2 databases are disabled')
+
+        if (!database)
+            throw new SQLException('Database of embedded H2 is empty')
+
+        if (database.startsWith('mem:')) {
+            if (!('mem:' in paths))
+                throw new SQLException('In-memory H2 databases are not allowed')
+
+            if (!(database ==~ /mem:[A-Za-z0-9_-]+/))
+                throw new SQLException("Invalid in-memory H2 database '${database}'")
+
+            return database
+        }
+
+        File file = new File(database)
+
+        // URL prefixes such as zip:, split: or file: and paths relative to the working or home directory
+        if (!file.absolute || database ==~ /[A-Za-z]{2,}:.*/ || database.startsWith('~'))
+            throw new SQLException("H2 database path '${database}' must be absolute")
+
+        String path = file.canonicalPath
+
+        boolean allowed = paths.any { String allowedPath ->
+            allowedPath != 'mem:' &&
+                    path.startsWith(new File(allowedPath).canonicalPath + File.separator)
+        }
+
+        if (!allowed)
+            throw new SQLException("H2 database '${database}' is outside of the allowed paths")
+
+        "${path};IFEXISTS=TRUE"
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import grails.util.Holders
+
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.SQLException
+
+/**
+ * Base of providers connecting with a JDBC driver from the application class path. Host and database are checked
+ * before they are put into the URL, so connection details can't add driver options to it; driver properties only
+ * come from {@link #getProperties}.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+abstract class ChartsJdbcConnectionProvider implements ChartsConnectionProvider {
+
+    int fetchSize = 1000
+
+    abstract String getDriverClassName()
+
+    /**
+     * Returns URL of the database, host and database being checked with {@link #checkHost} and
+     * {@link #checkDatabase}.
+     */
+    abstract String getUrl(String host, int port, String database) throws SQLException
+
+    /**
+     * Returns driver properties besides user and password.
+     */
+    Properties getProperties() {
+        new Properties()
+    }
+
+    @Override
+    boolean isHostRequired() {
+        true
+    }
+
+    @Override
+    Connection connect(String host, int port, String database, String user, String password) throws SQLException {
+        Properties info = properties
+
+        if (user != null)
+            info.put('user', user)
+
+        if (password != null)
+            info.put('password', password)
+
+        try {
+            Class.forName(driverClassName)
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("JDBC driver ${driverClassName} of ${type} is not on the class path", e)
+        }
+
+        String url = getUrl(checkHost(host), port, checkDatabase(database))
+
+        Connection connection = DriverManager.getConnection(url, info, Holders.grailsApplication.class)
+        connection.autoCommit = false
+        connection
+    }
+
+    @Override
+    String quoteIdentifier(String identifier) {
+        '"' + identifier.replace('"', '""') + '"'
+    }
+
+    @Override
+    ChartsSqlScript.Dialect getDialect() {
+        ChartsSqlScript.Dialect.ANSI
+    }
+
+    /**
+     * Accepts host names and IPv4 or bracketed IPv6 addresses.
+     */
+    static String checkHost(String host) throws SQLException {
+        if (host != null && !(host ==~ /[A-Za-z0-9._-]+|\[[0-9A-Fa-f:.]+\]/))
+            throw new SQLException("Invalid database host '${host}'")
+
+        host
+    }
+
+    /**
+     * Rejects characters starting or separating URL options (<code>; ? & #</code>) and control characters.
+     */
+    static String checkDatabase(String database) throws SQLException {
+        if (database != null && database.find(/[;?&#\p{Cntrl}]/))
+            throw new SQLException("Invalid database name '${database}'")
+
+        database
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import grails.converters.JSON
+import groovy.util.logging.Log4j
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Pushes chart updates to subscribed viewers as Server-Sent Events. Viewers of the same chart share a channel:
+ * its query runs once per interval on a shared scheduler, whatever the number of viewers, and the result is
+ * written to all of them. After the first full result, charts with a date/time or numeric category are refreshed
+ * incrementally from the last category (see {@link ChartsQueryPlan#withSince}) and only the new rows are sent.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Log4j
+class ChartsLiveHub {
+
+    int poolSize = 2
+    int maxChannels = 100
+    long minInterval = 5000
+
+    /**
+     * Loads chart rows: called with query, connection string, parameters and points, returns map with
+     * <code>columns</code>, <code>rows</code>, <code>continuous</code> (true for sortable categories) and
+     * <code>truncated</code> (true when the row limit was reached).
+     */
+    Closure<Map> loader
+
+    /**
+     * Rewrites query of an incremental refresh: called with query, connection string and category column.
+     */
+    Closure<String> incrementalQuery = { String query, String connectionString, String column ->
+        ChartsQueryPlan.withSince(query, column)
+    }
+
+    private final Map<String, Channel> channels = [:]
+
+    private ScheduledExecutorService scheduler
+
+    void start() {
+        AtomicInteger counter = new AtomicInteger()
+
+        scheduler = Executors.newScheduledThreadPool(poolSize, new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "console-charts-live-${counter.incrementAndGet()}")
+                thread.daemon = true
+                thread
+            }
+        })
+    }
+
+    /**
+     * Adds the subscriber to the channel of the chart, starting the channel if it is new. A new subscriber gets
+     * the current data of a running channel right away. The interval in milliseconds is raised to
+     * {@link #minInterval} if shorter.
+     *
+     * @return false if the maximum number of channels is reached
+     */
+    boolean subscribe(String query, String connectionString, Map parameters, Integer points, long interval,
+                      Subscriber subscriber) {
+        interval = Math.max(interval, minInterval)
+
+        String key = [query, connectionString, parameters?.sort(), points, interval].join('\u0000').encodeAsSHA256()
+        Channel channel
+
+        synchronized (this) {
+            channel = channels[key]
+
+            if (channel == null) {
+                if (channels.size() >= maxChannels)
+                    return false
+
+                channel = new Channel(key: key, query: query, connectionString: connectionString,
+                        parameters: parameters ?: [:], points: points)
+                channels[key] = channel
+
+                channel.future = scheduler.scheduleWithFixedDelay({ refresh(channel) } as Runnable, 0, interval,
+                        TimeUnit.MILLISECONDS)
+            }
+
+            channel.subscribers.add subscriber
+            subscriber.channel = channel
+        }
+
+        synchronized (channel) {
+            if (channel.rows != null)
+                subscriber.send('full', ([columns: channel.columns, rows: channel.rows] as JSON).toString())
+        }
+
+        true
+    }
+
+    /**
+     * Removes the subscriber, stopping its channel when no subscribers are left.
+     */
+    synchronized void unsubscribe(Subscriber subscriber) {
+        Channel channel = subscriber.channel
+
+        if (channel == null)
+            return
+
+        channel.subscribers.remove subscriber
+
+        if (channel.subscribers.isEmpty() && channels[channel.key].is(channel)) {
+            channels.remove(channel.key)
+            channel.future?.cancel(false)
+        }
+    }
+
+    void refresh(Channel channel) {
+        String event
+        String data
+
+        try {
+            synchronized (channel) {
+                def since = channel.incremental && channel.rows ? channel.rows.last()[0] : null
+                boolean full = since == null || (channel.points && channel.rows.size() > channel.points * 4)
+
+                Map result = null
+
+                if (!full) {
+                    String query = channel.query
+
+                    if (!('since' in ChartsSqlScript.parameters(query)))
+                        query = incrementalQuery.call(query, channel.connectionString, channel.columns[0] as String)
+
+                    result = loader.call(query, channel.connectionString, channel.parameters + [since: since],
+                            channel.points)
+
+                    // rows past the row limit would be skipped by the next refresh, reload the chart instead
+                    full = result.truncated as boolean
+                }
+
+                if (full) {
+                    result = loader.call(channel.query, channel.connectionString, channel.parameters, channel.points)
+
+                    channel.columns = result.columns
+                    channel.rows = result.rows
+                    // a truncated chart is reloaded with the same row limit, never extended past it
+                    channel.incremental = result.continuous && channel.columns.size() > 1 && !result.truncated
+
+                    event = 'full'
+                    data = ([columns: channel.columns, rows: channel.rows] as JSON).toString()
+                } else {
+                    List<List> rows = result.rows
+
+                    if (rows) {
+                        Object first = rows[0][0]
+
+                        while (channel.rows && compare(channel.rows.last()[0], first) >= 0) {
+                            channel.rows.remove(channel.rows.size() - 1)
+                        }
+
+                        channel.rows.addAll rows
+                    }
+
+                    event = 'delta'
+                    data = ([columns: channel.columns, rows: rows] as JSON).toString()
+                }
+            }
+        } catch (e) {
+            log.warn("Live chart query failed: ${e.message}")
+
+            event = 'failure'
+            data = ([error: true, text: "${e.message ?: ''} ${e.cause?.message ?: ''}".toString(),
+                     exception: e.class.canonicalName] as JSON).toString()
+        }
+
+        channel.subscribers.each { Subscriber subscriber ->
+            if (!subscriber.send(event, data))
+                subscriber.close()
+        }
+    }
+
+    synchronized Map getStats() {
+        [channels: channels.size(), subscribers: channels.values().sum { it.subscribers.size() } ?: 0]
+    }
+
+    void shutdown() {
+        scheduler?.shutdownNow()
+
+        List<Subscriber> subscribers = []
+
+        synchronized (this) {
+            channels.values().each { subscribers.addAll it.subscribers }
+            channels.clear()
+        }
+
+        subscribers.each { it.close() }
+    }
+
+    /**
+     * Compares categories as numbers when both are numbers, otherwise as strings.
+     */
+    static int compare(a, b) {
+        Object x = a instanceof String ? ChartsRowDecoder.toNumber(a) : a
+        Object y = b instanceof String ? ChartsRowDecoder.toNumber(b) : b
+
+        if (x instanceof Number && y instanceof Number)
+            return new BigDecimal(x.toString()) <=> new BigDecimal(y.toString())
+
+        String.valueOf(a) <=> String.valueOf(b)
+    }
+
+    static class Channel {
+        String key
+        String query
+        String connectionString
+        Map parameters
+        Integer points
+        ScheduledFuture future
+        List<String> columns
+        List<List> rows
+        boolean incremental
+        final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>()
+    }
+
+    /**
+     * Viewer connected over Server-Sent Events.
+     */
+    abstract static class Subscriber {
+        Channel channel
+
+        /**
+         * Writes the event, returns false if the viewer is gone.
+         */
+        abstract boolean send(String event, String data)
+
+        abstract void close()
+    }
+
+}
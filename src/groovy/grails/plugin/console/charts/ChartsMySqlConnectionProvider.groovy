@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+/**
+ * MySQL through Connector/J. Rows are streamed one by one (fetch size <code>Integer.MIN_VALUE</code>) unless
+ * server-side cursors are enabled with {@link #useCursorFetch}.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsMySqlConnectionProvider extends ChartsJdbcConnectionProvider {
+
+    boolean useCursorFetch = false
+    boolean serverPrepStmts = true
+    int prepStmtCacheSize = 250
+    int prepStmtCacheSqlLimit = 2048
+
+    final String type = 'mysql'
+    final int defaultPort = 3306
+    final String driverClassName = 'com.mysql.jdbc.Driver'
+
+    ChartsMySqlConnectionProvider() {
+        fetchSize = Integer.MIN_VALUE
+    }
+
+    @Override
+    String getUrl(String host, int port, String database) {
+        "jdbc:mysql://${host}:${port}${database ? '/' + database : ''}"
+    }
+
+    @Override
+    Properties getProperties() {
+        Properties info = new Properties()
+
+        if (useCursorFetch)
+            info.put('useCursorFetch', 'true')
+
+        // parameterized chart queries are parsed once per connection and reused for every parameter value
+        if (serverPrepStmts) {
+            info.put('useServerPrepStmts', 'true')
+            info.put('cachePrepStmts', 'true')
+            info.put('prepStmtCacheSize', prepStmtCacheSize.toString())
+            info.put('prepStmtCacheSqlLimit', prepStmtCacheSqlLimit.toString())
+        }
+
+        info
+    }
+
+    @Override
+    String quoteIdentifier(String identifier) {
+        '`' + identifier.replace('`', '``') + '`'
+    }
+
+    @Override
+    ChartsSqlScript.Dialect getDialect() {
+        ChartsSqlScript.Dialect.MYSQL
+    }
+
+}
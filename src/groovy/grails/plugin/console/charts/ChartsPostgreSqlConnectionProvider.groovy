@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+/**
+ * PostgreSQL through the pgJDBC driver. Results are read through a cursor {@link #fetchSize} rows at a time, which
+ * the driver does for forward-only statements with auto-commit disabled.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsPostgreSqlConnectionProvider extends ChartsJdbcConnectionProvider {
+
+    int prepareThreshold = 1
+
+    final String type = 'postgresql'
+    final int defaultPort = 5432
+    final String driverClassName = 'org.postgresql.Driver'
+
+    @Override
+    String getUrl(String host, int port, String database) {
+        "jdbc:postgresql://${host}:${port}/${database ?: ''}"
+    }
+
+    @Override
+    Properties getProperties() {
+        Properties info = new Properties()
+
+        info.put('ApplicationName', 'console-charts')
+        // use server-side prepared statements from the first execution of parameterized chart queries
+        info.put('prepareThreshold', prepareThreshold.toString())
+        // parameters are bound as strings, let the server infer their type from the column they are compared with
+        info.put('stringtype', 'unspecified')
+
+        info
+    }
+
+    @Override
+    ChartsSqlScript.Dialect getDialect() {
+        ChartsSqlScript.Dialect.POSTGRESQL
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import groovy.util.logging.Log4j
+
+import java.sql.SQLException
+import java.sql.Statement
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Bounded executor for chart queries. Every query is registered under an id, so it can be cancelled while it is
+ * queued or while its statements are running. Statements of one query may run in parallel on a separate pool of
+ * {@link #parallelism} threads; work is only forked to a free thread, never queued behind other queries.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Log4j
+class ChartsQueryExecutor {
+
+    int poolSize = 10
+    int queueSize = 100
+    int parallelism = 4
+
+    private final ThreadLocal<String> currentQuery = new ThreadLocal<String>()
+    private final ThreadLocal<Integer> currentTimeout = new ThreadLocal<Integer>()
+    private final Set<String> queries = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+    private final Set<String> cancelled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+    private final Map<String, Set<Statement>> statements = new ConcurrentHashMap<String, Set<Statement>>()
+    private final Map<String, Set<ChartsSeriesStream>> streams = new ConcurrentHashMap<String, Set<ChartsSeriesStream>>()
+
+    private Semaphore statementThreads
+
+    private ThreadPoolExecutor executor
+    private ExecutorService statementExecutor
+
+    void start() {
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), threadFactory('console-charts-query'))
+        executor.allowCoreThreadTimeOut(true)
+
+        statementExecutor = Executors.newFixedThreadPool(parallelism, threadFactory('console-charts-statement'))
+        statementThreads = new Semaphore(parallelism)
+    }
+
+    /**
+     * Runs the closure on the executor as query with the given id and timeout in seconds (0 for no timeout). The
+     * closure is always called, also for queries cancelled while queued; their statements fail on registration.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the queue is full
+     */
+    void submit(String queryId, int timeout, Closure closure) {
+        queries.add(queryId)
+
+        try {
+            executor.execute({ run(queryId, timeout, closure) } as Runnable)
+        } catch (e) {
+            queries.remove(queryId)
+            throw e
+        }
+    }
+
+    /**
+     * Runs the closure on the current thread as query with the given id and timeout in seconds.
+     */
+    def run(String queryId, int timeout, Closure closure) {
+        queries.add(queryId)
+        currentQuery.set(queryId)
+        currentTimeout.set(timeout)
+
+        try {
+            closure.call()
+        } finally {
+            currentQuery.remove()
+            currentTimeout.remove()
+            queries.remove(queryId)
+            cancelled.remove(queryId)
+            statements.remove(queryId)
+            streams.remove(queryId)
+        }
+    }
+
+    /**
+     * Runs the closure on the statement pool as part of the query run by the current thread, so its statements
+     * share the query's timeout and are cancelled with it.
+     *
+     * @return null if all statement threads are busy, the caller has to run the work itself
+     */
+    Future fork(Closure closure) {
+        if (!statementThreads.tryAcquire())
+            return null
+
+        String queryId = currentQuery.get()
+        Integer timeout = currentTimeout.get()
+
+        try {
+            statementExecutor.submit({
+                currentQuery.set(queryId)
+                currentTimeout.set(timeout)
+
+                try {
+                    closure.call()
+                } finally {
+                    currentQuery.remove()
+                    currentTimeout.remove()
+                    statementThreads.release()
+                }
+            } as Callable)
+        } catch (e) {
+            statementThreads.release()
+            throw e
+        }
+    }
+
+    /**
+     * Returns timeout in seconds of the query run by the current thread, 0 if there is none.
+     */
+    int getTimeout() {
+        currentTimeout.get() ?: 0
+    }
+
+    /**
+     * Registers statement executed by the current thread, so it can be cancelled by {@link #cancel}.
+     *
+     * @throws SQLException if the query has already been cancelled
+     */
+    void register(Statement statement) throws SQLException {
+        String queryId = currentQuery.get()
+
+        if (queryId == null)
+            return
+
+        synchronized (statements) {
+            Set<Statement> running = statements[queryId]
+
+            if (running == null) {
+                running = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>())
+                statements[queryId] = running
+            }
+
+            running.add statement
+        }
+
+        if (cancelled.contains(queryId)) {
+            unregister(statement)
+            throw new SQLException('Query was cancelled')
+        }
+    }
+
+    /**
+     * Registers series stream of the query run by the current thread, so it is closed by {@link #cancel}.
+     */
+    void register(ChartsSeriesStream stream) {
+        String queryId = currentQuery.get()
+
+        if (queryId == null)
+            return
+
+        synchronized (streams) {
+            Set<ChartsSeriesStream> open = streams[queryId]
+
+            if (open == null) {
+                open = Collections.newSetFromMap(new ConcurrentHashMap<ChartsSeriesStream, Boolean>())
+                streams[queryId] = open
+            }
+
+            open.add stream
+        }
+
+        if (cancelled.contains(queryId))
+            stream.close()
+    }
+
+    void unregister(ChartsSeriesStream stream) {
+        String queryId = currentQuery.get()
+
+        if (queryId != null)
+            streams.get(queryId)?.remove(stream)
+    }
+
+    void unregister(Statement statement) {
+        String queryId = currentQuery.get()
+
+        if (queryId == null)
+            return
+
+        synchronized (statements) {
+            Set<Statement> running = statements[queryId]
+
+            if (running != null) {
+                running.remove statement
+
+                if (running.isEmpty())
+                    statements.remove(queryId)
+            }
+        }
+    }
+
+    /**
+     * Cancels queued or running query.
+     *
+     * @return true if the query was found
+     */
+    boolean cancel(String queryId) {
+        if (!queries.contains(queryId))
+            return false
+
+        cancelled.add(queryId)
+
+        // ends waits of merged series, which no statement cancel reaches
+        streams.get(queryId)?.each { ChartsSeriesStream stream -> stream.close() }
+
+        statements.get(queryId)?.each { Statement statement ->
+            try {
+                statement.cancel()
+            } catch (SQLException e) {
+                log.debug("Can't cancel query ${queryId}", e)
+            }
+        }
+
+        true
+    }
+
+    Map getStats() {
+        [active: executor.activeCount, queued: executor.queue.size(), completed: executor.completedTaskCount]
+    }
+
+    void shutdown() {
+        executor?.shutdownNow()
+        statementExecutor?.shutdownNow()
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger()
+
+        new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "${name}-${counter.incrementAndGet()}")
+                thread.daemon = true
+                thread
+            }
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import grails.converters.JSON
+import groovy.json.JsonSlurper
+import groovy.util.logging.Log4j
+
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Execution history of chart queries. The last {@link #capacity} executions are kept in a ring buffer, which is
+ * appended as JSON lines to {@link #file} every {@link #flushInterval} milliseconds. The file is rolled over at
+ * {@link #maxFileSize} bytes, keeping {@link #maxFiles} old files. On start the ring buffer is filled from the file,
+ * so rankings survive restarts.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Log4j
+class ChartsQueryLog {
+
+    int capacity = 10000
+    long flushInterval = 10000
+    File file = new File(System.getProperty('java.io.tmpdir'), 'console-charts-queries.log')
+    long maxFileSize = 10 * 1024 * 1024
+    int maxFiles = 5
+
+    private Entry[] entries
+    private long recorded = 0
+    private long flushed = 0
+
+    private ScheduledExecutorService flusher
+
+    void start() {
+        entries = new Entry[capacity]
+
+        file.parentFile?.mkdirs()
+
+        if (file.exists())
+            load()
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, 'console-charts-query-log')
+                thread.daemon = true
+                thread
+            }
+        })
+
+        flusher.scheduleWithFixedDelay({ flush() } as Runnable, flushInterval, flushInterval, TimeUnit.MILLISECONDS)
+    }
+
+    synchronized void record(Entry entry) {
+        entries[(int) (recorded % capacity)] = entry
+        recorded++
+    }
+
+    /**
+     * Appends entries recorded since the last flush to the log file. Entries overwritten in the ring buffer before
+     * they were flushed are lost.
+     */
+    void flush() {
+        List<Entry> pending = []
+
+        synchronized (this) {
+            for (long i = Math.max(flushed, recorded - capacity); i < recorded; i++) {
+                pending.add entries[(int) (i % capacity)]
+            }
+
+            flushed = recorded
+        }
+
+        if (!pending)
+            return
+
+        try {
+            synchronized (file) {
+                if (file.length() > maxFileSize)
+                    roll()
+
+                file.withWriterAppend('UTF-8') { Writer writer ->
+                    pending.each { Entry entry ->
+                        writer.write((entry.toMap() as JSON).toString())
+                        writer.write('\n')
+                    }
+                }
+            }
+        } catch (e) {
+            log.warn("Can't write query log ${file}: ${e.message}")
+        }
+    }
+
+    /**
+     * Returns statistics of the queries in the ring buffer grouped by fingerprint, ordered by <code>total</code>
+     * or <code>p99</code> duration, longest first.
+     */
+    List<Map> ranking(String order = 'total', int max = 100) {
+        Map<String, List<Entry>> groups = [:]
+
+        synchronized (this) {
+            for (long i = Math.max(0L, recorded - capacity); i < recorded; i++) {
+                Entry entry = entries[(int) (i % capacity)]
+
+                if (!entry.cached)
+                    (groups[entry.fingerprint] ?: (groups[entry.fingerprint] = [])).add entry
+            }
+        }
+
+        List<Map> ranking = groups.collect { String fingerprint, List<Entry> group ->
+            long[] durations = group*.duration as long[]
+            Arrays.sort(durations)
+
+            long total = group.sum { it.duration } as long
+            Map<String, Long> stages = [:]
+
+            group.each { Entry entry ->
+                entry.stages.each { String stage, Long nanos -> stages[stage] = (stages[stage] ?: 0L) + nanos }
+            }
+
+            Entry last = group.last()
+
+            [fingerprint: fingerprint,
+             query      : last.query,
+             hosts      : group*.host.unique(),
+             executions : group.size(),
+             errors     : group.count { it.error != null },
+             total      : toMillis(total),
+             mean       : toMillis((long) (total / group.size())),
+             p99        : toMillis(durations[(int) Math.ceil(durations.length * 0.99) - 1]),
+             max        : toMillis(durations[durations.length - 1]),
+             rows       : group.sum { it.rows } as long,
+             bytes      : group.sum { it.bytes } as long,
+             stages     : stages.collectEntries { String stage, Long nanos -> [stage, toMillis(nanos)] },
+             lastRun    : last.time]
+        }
+
+        ranking.sort { -(it[order == 'p99' ? 'p99' : 'total'] as double) }.take(max)
+    }
+
+    synchronized Map getStats() {
+        [recorded: recorded, flushed: flushed, buffered: Math.min(recorded, (long) capacity)]
+    }
+
+    void shutdown() {
+        flusher?.shutdownNow()
+        flush()
+    }
+
+    private void load() {
+        LinkedList<Entry> tail = new LinkedList<Entry>()
+        JsonSlurper slurper = new JsonSlurper()
+
+        file.eachLine('UTF-8') { String line ->
+            try {
+                tail.add Entry.fromMap(slurper.parseText(line) as Map)
+
+                if (tail.size() > capacity)
+                    tail.removeFirst()
+            } catch (e) {
+                // partially written line
+            }
+        }
+
+        tail.each { record(it) }
+        flushed = recorded
+    }
+
+    private void roll() {
+        new File("${file.path}.${maxFiles}").delete()
+
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File older = new File("${file.path}.${i}")
+
+            if (older.exists())
+                older.renameTo(new File("${file.path}.${i + 1}"))
+        }
+
+        file.renameTo(new File("${file.path}.1"))
+    }
+
+    private static double toMillis(long nanos) {
+        Math.round(nanos / 1e5) / 10.0
+    }
+
+    static class Entry {
+        long time
+        String fingerprint
+        String query
+        String host
+        long duration
+        Map<String, Long> stages
+        long rows
+        long bytes
+        boolean cached
+        String error
+
+        Map toMap() {
+            [time    : time, fingerprint: fingerprint, query: query, host: host, duration: duration, stages: stages,
+             rows    : rows, bytes: bytes, cached: cached, error: error]
+        }
+
+        static Entry fromMap(Map map) {
+            new Entry(time: map.time as long, fingerprint: map.fingerprint, query: map.query, host: map.host,
+                    duration: map.duration as long,
+                    stages: (map.stages ?: [:]).collectEntries { k, v -> [k, v as long] } as Map<String, Long>,
+                    rows: map.rows as long, bytes: map.bytes as long, cached: map.cached as boolean,
+                    error: map.error instanceof String ? map.error : null)
+        }
+    }
+
+}
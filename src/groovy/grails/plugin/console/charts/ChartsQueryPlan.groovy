@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+/**
+ * Execution plan of a chart script. The trailing <code>SELECT</code> statements are the chart series, all
+ * statements before them are setup executed in one batch. A series is independent, and may run on its own
+ * connection, when it uses no <code>@</code> variables and no tables touched by the setup, and the setup does not
+ * change session settings. Statements are split with the {@link ChartsSqlScript.Dialect dialect} of the database.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsQueryPlan {
+
+    static final Set<String> WRITE_STATEMENTS = ['create', 'drop', 'alter', 'truncate', 'insert', 'replace',
+                                                 'update', 'delete', 'select'] as Set
+
+    static final Set<String> TABLE_KEYWORDS = ['table', 'into', 'update', 'from', 'join'] as Set
+
+    static final Set<String> TABLE_MODIFIERS = ['if', 'not', 'exists', 'temporary', 'low_priority', 'high_priority',
+                                                'delayed', 'ignore', 'quick'] as Set
+
+    final List<String> setup = []
+    final List<String> selects = []
+    final List<Boolean> independent = []
+
+    ChartsSqlScript.Dialect dialect = ChartsSqlScript.Dialect.MYSQL
+
+    static ChartsQueryPlan plan(String script, ChartsSqlScript.Dialect dialect = ChartsSqlScript.Dialect.MYSQL) {
+        ChartsQueryPlan plan = new ChartsQueryPlan(dialect: dialect)
+
+        List<String> statements = ChartsSqlScript.split(script, dialect)
+
+        int first = statements.size()
+
+        while (first > 0 && ChartsSqlScript.isSelect(statements[first - 1], dialect)) {
+            first--
+        }
+
+        // keep executing the last statement as query, as before, when it is not a SELECT
+        if (first == statements.size() && first > 0)
+            first--
+
+        plan.setup.addAll statements.subList(0, first)
+        plan.selects.addAll statements.subList(first, statements.size())
+
+        Set<String> tables = [] as Set
+        boolean session = false
+
+        plan.setup.each { String statement ->
+            List<String> tokens = ChartsSqlScript.tokens(statement, dialect)
+            String keyword = tokens ? tokens[0] : null
+
+            if (keyword == 'set') {
+                if (tokens.size() < 2 || !tokens[1].startsWith('@') || tokens[1].startsWith('@@'))
+                    session = true
+            } else if (keyword in WRITE_STATEMENTS) {
+                tokens.eachWithIndex { String token, int i ->
+                    if (!(token in TABLE_KEYWORDS))
+                        return
+
+                    int j = i + 1
+
+                    while (j < tokens.size() && tokens[j] in TABLE_MODIFIERS) {
+                        j++
+                    }
+
+                    if (j < tokens.size())
+                        tables.add tableName(tokens[j])
+                }
+            } else {
+                session = true
+            }
+        }
+
+        plan.selects.each { String statement ->
+            List<String> tokens = ChartsSqlScript.tokens(statement, dialect)
+
+            plan.independent.add(!session && !tokens.any { String token ->
+                token.startsWith('@') && !token.startsWith('@@') || tableName(token) in tables
+            })
+        }
+
+        plan
+    }
+
+    /**
+     * Returns the script with its chart SELECTs limited to rows whose category column is not less than the
+     * <code>:since</code> parameter. SELECTs which already use <code>:since</code> are left as they are. The column
+     * is quoted for the database of the provider, MySQL if none is given.
+     */
+    static String withSince(String script, String column, ChartsConnectionProvider provider = null) {
+        String quoted = provider ? provider.quoteIdentifier(column) : "`${column.replace('`', '``')}`"
+
+        ChartsQueryPlan plan = plan(script, provider ? provider.dialect : ChartsSqlScript.Dialect.MYSQL)
+
+        List<String> selects = plan.selects.collect { String select ->
+            if ('since' in ChartsSqlScript.parameters(select, plan.dialect))
+                return select
+
+            "SELECT * FROM (\n${select}\n) AS incremental WHERE ${quoted} >= :since".toString()
+        }
+
+        (plan.setup + selects).join(';\n')
+    }
+
+    /**
+     * Wraps the SELECT so its rows are ordered by the category column, as needed to merge series. SELECTs ending with
+     * their own ORDER BY are left as they are, the merge fails if it is not by the category.
+     */
+    String orderByCategory(String select) {
+        if (ChartsSqlScript.hasOrderBy(select, dialect))
+            return select
+
+        "SELECT * FROM (\n${select}\n) AS series ORDER BY 1"
+    }
+
+    /**
+     * Returns true if the script may leave session state behind (temporary tables, variables, settings, current
+     * database), so its connection must not be reused by other charts.
+     */
+    boolean isStateful() {
+        setup || selects.any { String select ->
+            ChartsSqlScript.tokens(select, dialect).any { String token ->
+                token.startsWith('@') && !token.startsWith('@@')
+            }
+        }
+    }
+
+    boolean isMultiple() {
+        selects.size() > 1
+    }
+
+    private static String tableName(String token) {
+        token.substring(token.lastIndexOf('.') + 1)
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * LRU cache of query results bounded by estimated size in bytes. Concurrent loads of the same key are coalesced
+ * into a single call of the loader.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsResultCache {
+
+    long ttl = 0
+    long maxBytes = 64 * 1024 * 1024
+
+    final AtomicLong hits = new AtomicLong()
+    final AtomicLong misses = new AtomicLong()
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+    private final ConcurrentHashMap<String, FutureTask<Map>> loading = new ConcurrentHashMap<String, FutureTask<Map>>()
+    private long bytes = 0
+
+    /**
+     * Returns cached value for the key or loads it. Value is kept for ttl milliseconds.
+     */
+    Map get(String key, long ttl, Closure<Map> loader) {
+        Map cached = getIfPresent(key)
+
+        if (cached != null)
+            return cached
+
+        FutureTask<Map> task = new FutureTask<Map>(loader as Callable<Map>)
+        FutureTask<Map> existing = loading.putIfAbsent(key, task)
+
+        boolean owner = existing == null
+
+        if (!owner)
+            task = existing
+
+        try {
+            if (owner)
+                task.run()
+
+            Map value = task.get()
+
+            if (owner)
+                put(key, value, ttl)
+
+            value
+        } catch (ExecutionException e) {
+            throw e.cause
+        } finally {
+            if (owner)
+                loading.remove(key, task)
+        }
+    }
+
+    /**
+     * Returns cached value for the key if it has not expired yet.
+     */
+    synchronized Map getIfPresent(String key) {
+        CacheEntry entry = entries[key]
+
+        if (entry) {
+            if (entry.expires > System.currentTimeMillis()) {
+                hits.incrementAndGet()
+                return entry.value
+            }
+
+            remove(key)
+        }
+
+        misses.incrementAndGet()
+
+        null
+    }
+
+    synchronized void clear() {
+        entries.clear()
+        bytes = 0
+    }
+
+    synchronized Map getStats() {
+        [entries: entries.size(), bytes: bytes, hits: hits.get(), misses: misses.get()]
+    }
+
+    synchronized void put(String key, Map value, long ttl) {
+        long size = estimateSize(value)
+
+        if (size > maxBytes)
+            return
+
+        remove(key)
+
+        entries[key] = new CacheEntry(value: value, size: size, expires: System.currentTimeMillis() + ttl)
+        bytes += size
+
+        Iterator<CacheEntry> it = entries.values().iterator()
+
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size
+            it.remove()
+        }
+    }
+
+    private void remove(String key) {
+        CacheEntry entry = entries.remove(key)
+
+        if (entry)
+            bytes -= entry.size
+    }
+
+    static long estimateSize(value) {
+        if (value == null)
+            return 4
+
+        if (value instanceof CharSequence)
+            return 40 + 2 * value.length()
+
+        if (value instanceof Number || value instanceof Boolean || value instanceof Date)
+            return 24
+
+        if (value instanceof Map) {
+            long size = 48
+
+            value.each { k, v -> size += 32 + estimateSize(k) + estimateSize(v) }
+
+            return size
+        }
+
+        if (value instanceof Collection || value instanceof Object[]) {
+            long size = 24
+
+            value.each { size += 8 + estimateSize(it) }
+
+            return size
+        }
+
+        64
+    }
+
+    private static class CacheEntry {
+        Map value
+        long size
+        long expires
+    }
+
+}
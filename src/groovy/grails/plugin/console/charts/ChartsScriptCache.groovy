@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.customizers.ImportCustomizer
+import org.codehaus.groovy.runtime.InvokerHelper
+
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * LRU cache of compiled appearance scripts keyed by SHA-256 of the script text. Every script is compiled by its
+ * own class loader, so evicted script classes can be garbage collected. Classes listed in {@link #imports} (the
+ * domain classes, as the console plugin auto-imports them) are imported into every script.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsScriptCache {
+
+    int maxSize = 100
+    ClassLoader parentClassLoader = Thread.currentThread().contextClassLoader
+    List<String> imports = []
+
+    final AtomicLong hits = new AtomicLong()
+    final AtomicLong misses = new AtomicLong()
+    final AtomicLong evictions = new AtomicLong()
+
+    private final LinkedHashMap<String, Class<Script>> scripts = new LinkedHashMap<String, Class<Script>>(16, 0.75f, true)
+
+    /**
+     * Runs the script with a fresh binding, compiling it only if it is not cached yet.
+     */
+    def run(String code, Map bindingValues) {
+        Script script = InvokerHelper.createScript(getScriptClass(code), new Binding(bindingValues))
+        script.run()
+    }
+
+    Class<Script> getScriptClass(String code) {
+        String key = hash(code)
+
+        synchronized (this) {
+            Class<Script> scriptClass = scripts[key]
+
+            if (scriptClass) {
+                hits.incrementAndGet()
+                return scriptClass
+            }
+        }
+
+        misses.incrementAndGet()
+
+        GroovyClassLoader classLoader = new GroovyClassLoader(parentClassLoader, compilerConfiguration())
+        Class<Script> scriptClass = classLoader.parseClass(code, "Appearance_${key.substring(0, 16)}.groovy")
+
+        synchronized (this) {
+            Class<Script> existing = scripts[key]
+
+            if (existing)
+                return existing
+
+            scripts[key] = scriptClass
+
+            Iterator<Class<Script>> it = scripts.values().iterator()
+
+            while (scripts.size() > maxSize && it.hasNext()) {
+                it.next()
+                it.remove()
+                evictions.incrementAndGet()
+            }
+        }
+
+        scriptClass
+    }
+
+    synchronized void clear() {
+        scripts.clear()
+    }
+
+    synchronized Map getStats() {
+        [scripts: scripts.size(), hits: hits.get(), misses: misses.get(), evictions: evictions.get()]
+    }
+
+    private CompilerConfiguration compilerConfiguration() {
+        CompilerConfiguration configuration = new CompilerConfiguration()
+        configuration.addCompilationCustomizers(new ImportCustomizer().addImports(imports as String[]))
+        configuration
+    }
+
+    private static String hash(String code) {
+        MessageDigest.getInstance('SHA-256').digest(code.getBytes('UTF-8')).encodeHex().toString()
+    }
+
+}
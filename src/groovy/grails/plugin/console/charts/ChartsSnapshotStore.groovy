@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import grails.converters.JSON
+import groovy.json.JsonSlurper
+import groovy.util.logging.Log4j
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Materialized results of shared charts. A snapshot is created on the first view of a chart and then refreshed in
+ * the background every {@link Snapshot#refresh} milliseconds, so views are served without running the query.
+ * Snapshots are kept in memory and written as gzipped JSON files to {@link #directory}, surviving restarts.
+ * Snapshots not viewed for {@link #idleTimeout} milliseconds are dropped; above {@link #maxCharts} the least
+ * recently viewed one is.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Log4j
+class ChartsSnapshotStore {
+
+    File directory = new File(System.getProperty('java.io.tmpdir'), 'console-charts-snapshots')
+    long checkInterval = 60000
+    long idleTimeout = 604800000
+    int maxCharts = 100
+
+    /**
+     * Executes the chart: called with the shared link data (<code>q</code>), parameters and points, returns the chart
+     * data.
+     */
+    Closure<Map> loader
+
+    private final Map<String, Snapshot> snapshots = [:]
+
+    private ScheduledExecutorService scheduler
+
+    void start() {
+        directory.mkdirs()
+
+        directory.listFiles({ File file -> file.name.endsWith('.json.gz') } as FileFilter)?.each { File file ->
+            try {
+                Snapshot snapshot = read(file)
+                snapshots[snapshot.key] = snapshot
+            } catch (e) {
+                log.warn("Can't read chart snapshot ${file}: ${e.message}")
+                file.delete()
+            }
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, 'console-charts-snapshot')
+                thread.daemon = true
+                thread
+            }
+        })
+
+        scheduler.scheduleWithFixedDelay({ refreshExpired() } as Runnable, checkInterval, checkInterval,
+                TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Returns snapshot of the chart, executing it if there is none yet. The refresh interval in milliseconds is
+     * updated to the one of the current chart definition.
+     */
+    Snapshot get(String q, Map parameters, long refresh, Integer points) {
+        String key = [q, parameters?.sort()].join('\u0000').encodeAsSHA256()
+        Snapshot snapshot
+
+        synchronized (this) {
+            snapshot = snapshots[key]
+        }
+
+        if (snapshot == null || snapshot.points != points) {
+            snapshot = new Snapshot(key: key, q: q, parameters: parameters ?: [:], points: points)
+            load(snapshot)
+        }
+
+        snapshot.refresh = refresh
+        snapshot.lastViewed = System.currentTimeMillis()
+
+        synchronized (this) {
+            snapshots[key] = snapshot
+            evict()
+        }
+
+        snapshot
+    }
+
+    void refreshExpired() {
+        long now = System.currentTimeMillis()
+        List<Snapshot> expired = []
+        List<Snapshot> idle = []
+
+        synchronized (this) {
+            Iterator<Snapshot> it = snapshots.values().iterator()
+
+            while (it.hasNext()) {
+                Snapshot snapshot = it.next()
+
+                if (now - snapshot.lastViewed > idleTimeout) {
+                    it.remove()
+                    idle.add snapshot
+                } else if (now - snapshot.created >= snapshot.refresh) {
+                    expired.add snapshot
+                }
+            }
+        }
+
+        idle.each { file(it.key).delete() }
+
+        expired.each { Snapshot snapshot ->
+            try {
+                load(snapshot)
+            } catch (e) {
+                // keep serving the previous snapshot
+                log.warn("Can't refresh chart snapshot ${snapshot.key}: ${e.message}")
+            }
+        }
+    }
+
+    synchronized Map getStats() {
+        [charts: snapshots.size()]
+    }
+
+    void shutdown() {
+        scheduler?.shutdownNow()
+    }
+
+    private void load(Snapshot snapshot) {
+        snapshot.data = loader.call(snapshot.q, snapshot.parameters, snapshot.points)
+        snapshot.created = System.currentTimeMillis()
+
+        write(snapshot)
+    }
+
+    private void evict() {
+        while (snapshots.size() > maxCharts) {
+            Snapshot oldest = snapshots.values().min { it.lastViewed }
+            snapshots.remove(oldest.key)
+            file(oldest.key).delete()
+        }
+    }
+
+    private void write(Snapshot snapshot) {
+        File target = file(snapshot.key)
+        File temp = new File(directory, "${snapshot.key}.tmp")
+
+        String json = ([key       : snapshot.key,
+                        q         : snapshot.q,
+                        parameters: snapshot.parameters,
+                        points    : snapshot.points,
+                        refresh   : snapshot.refresh,
+                        created   : snapshot.created,
+                        lastViewed: snapshot.lastViewed,
+                        data      : snapshot.data] as JSON).toString()
+
+        new GZIPOutputStream(new FileOutputStream(temp)).withWriter('UTF-8') { it.write(json) }
+
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private static Snapshot read(File file) {
+        Map json = new GZIPInputStream(new FileInputStream(file)).withReader('UTF-8') {
+            new JsonSlurper().parse(it) as Map
+        }
+
+        new Snapshot(key: json.key, q: json.q, parameters: (json.parameters ?: [:]) as Map,
+                points: json.points as Integer, refresh: json.refresh as long, created: json.created as long,
+                lastViewed: json.lastViewed as long, data: json.data as Map)
+    }
+
+    private File file(String key) {
+        new File(directory, "${key}.json.gz")
+    }
+
+    static class Snapshot {
+        String key
+        String q
+        Map parameters
+        Integer points
+        long refresh
+        volatile long created
+        volatile long lastViewed
+        volatile Map data
+    }
+
+}
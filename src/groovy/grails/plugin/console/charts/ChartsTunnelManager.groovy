@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import com.jcraft.jsch.JSchException
+import com.jcraft.jsch.Session
+
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps one long-lived SSH session with a local port forward per SSH server and remote database. All connections
+ * to the same database share the forward; tunnels without users are closed after {@link #idleTimeout} milliseconds.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsTunnelManager {
+
+    long idleTimeout = 600000
+    int keepAliveInterval = 30000
+    int keepAliveCountMax = 3
+
+    private final Map<String, Tunnel> tunnels = [:]
+
+    private ScheduledExecutorService reaper
+
+    void start() {
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, 'console-charts-tunnel-reaper')
+                thread.daemon = true
+                thread
+            }
+        })
+
+        long period = Math.max(1000L, (long) (idleTimeout / 2))
+        reaper.scheduleWithFixedDelay({ closeIdle() } as Runnable, period, period, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Acquires tunnel for the key, (re)connecting the session with the factory if it is not connected. The
+     * factory must return connected session with a single local port forward. Every acquire must be paired with
+     * {@link #release}.
+     */
+    Tunnel acquire(String key, Closure<Session> factory) throws JSchException {
+        Tunnel tunnel
+
+        synchronized (this) {
+            tunnel = tunnels[key]
+
+            if (tunnel == null) {
+                tunnel = new Tunnel()
+                tunnels[key] = tunnel
+            }
+
+            tunnel.users++
+        }
+
+        try {
+            synchronized (tunnel) {
+                if (!tunnel.session?.connected) {
+                    if (tunnel.session) {
+                        tunnel.session.disconnect()
+                        tunnel.reconnects++
+                    }
+
+                    Session session = factory.call()
+                    session.serverAliveInterval = keepAliveInterval
+                    session.serverAliveCountMax = keepAliveCountMax
+
+                    tunnel.session = session
+                    tunnel.localPort = session.portForwardingL[0].split(':')[0] as int
+                } else {
+                    tunnel.reused++
+                }
+            }
+        } catch (JSchException | RuntimeException e) {
+            release(tunnel)
+            throw e
+        }
+
+        tunnel
+    }
+
+    synchronized void release(Tunnel tunnel) {
+        if (tunnel == null)
+            return
+
+        tunnel.users--
+        tunnel.lastUsed = System.currentTimeMillis()
+    }
+
+    void closeIdle() {
+        long threshold = System.currentTimeMillis() - idleTimeout
+        List<Tunnel> expired = []
+
+        synchronized (this) {
+            Iterator<Tunnel> it = tunnels.values().iterator()
+
+            while (it.hasNext()) {
+                Tunnel tunnel = it.next()
+
+                if (tunnel.users <= 0 && tunnel.lastUsed < threshold) {
+                    it.remove()
+                    expired.add tunnel
+                }
+            }
+        }
+
+        expired.each { it.session?.disconnect() }
+    }
+
+    void shutdown() {
+        reaper?.shutdownNow()
+
+        List<Tunnel> all
+
+        synchronized (this) {
+            all = new ArrayList<Tunnel>(tunnels.values())
+            tunnels.clear()
+        }
+
+        all.each { it.session?.disconnect() }
+    }
+
+    synchronized Map getStats() {
+        [tunnels   : tunnels.size(),
+         users     : tunnels.values().sum { it.users } ?: 0,
+         reused    : tunnels.values().sum { it.reused } ?: 0,
+         reconnects: tunnels.values().sum { it.reconnects } ?: 0]
+    }
+
+    static class Tunnel {
+        Session session
+        int localPort
+        int users
+        long lastUsed
+        long reused
+        long reconnects
+    }
+
+}
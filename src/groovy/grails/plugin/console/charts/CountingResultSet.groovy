@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import java.sql.ResultSet
+import java.sql.SQLException
+
+/**
+ * Result set which counts rows while they are read, so the row count is known without scrolling back with
+ * <code>last()</code>. With a {@link ChartsRowLimit} the rows before its offset are skipped and the result ends when
+ * a limit is reached, cancelling the statement; the size of every row read is added to the limit. Scrollable result
+ * sets are scrolled within the same window: rows are numbered from the offset and the rows past a limit are never
+ * reached, whichever way the result set is moved.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class CountingResultSet implements ResultSet {
+
+    @Delegate
+    final ResultSet resultSet
+
+    final ChartsRowLimit limit
+
+    int count = 0
+
+    private final boolean scrollable
+    private final int offset
+    private final int columnCount
+    private boolean skipped = false
+
+    // scrollable result sets: current row within the window, and whether its end has been reached
+    private int position = 0
+    private boolean complete = false
+
+    CountingResultSet(ResultSet resultSet, ChartsRowLimit limit = null) {
+        this.resultSet = resultSet
+        this.limit = limit
+        this.scrollable = resultSet.type != TYPE_FORWARD_ONLY
+        this.offset = limit ? (int) Math.min(limit.offset, Integer.MAX_VALUE) : 0
+        this.columnCount = limit ? resultSet.metaData.columnCount : 0
+    }
+
+    @Override
+    boolean next() throws SQLException {
+        if (scrollable)
+            return moveTo(position + 1)
+
+        if (limit != null) {
+            if (limit.truncated)
+                return false
+
+            if (!skipped) {
+                skipped = true
+
+                for (int i = 0; i < offset; i++) {
+                    if (!resultSet.next())
+                        return false
+                }
+            }
+        }
+
+        if (!resultSet.next())
+            return false
+
+        if (!accept()) {
+            cancel()
+            return false
+        }
+
+        count++
+        true
+    }
+
+    @Override
+    boolean previous() throws SQLException {
+        moveTo(position - 1)
+    }
+
+    @Override
+    boolean first() throws SQLException {
+        moveTo(1)
+    }
+
+    @Override
+    boolean last() throws SQLException {
+        read(Integer.MAX_VALUE)
+        moveTo(count)
+    }
+
+    @Override
+    void beforeFirst() throws SQLException {
+        moveTo(0)
+    }
+
+    @Override
+    void afterLast() throws SQLException {
+        moveTo(Integer.MAX_VALUE)
+    }
+
+    @Override
+    boolean absolute(int row) throws SQLException {
+        if (row < 0) {
+            read(Integer.MAX_VALUE)
+            return moveTo(Math.max(0, count + 1 + row))
+        }
+
+        moveTo(row)
+    }
+
+    @Override
+    boolean relative(int rows) throws SQLException {
+        moveTo(Math.max(0, position + rows))
+    }
+
+    @Override
+    int getRow() throws SQLException {
+        if (scrollable)
+            return position >= 1 && position <= count ? position : 0
+
+        int row = resultSet.row
+        row > offset ? row - offset : 0
+    }
+
+    @Override
+    boolean isBeforeFirst() throws SQLException {
+        scrollable ? position == 0 && read(1) : resultSet.beforeFirst
+    }
+
+    @Override
+    boolean isAfterLast() throws SQLException {
+        scrollable ? position > count && count > 0 : resultSet.afterLast
+    }
+
+    @Override
+    boolean isFirst() throws SQLException {
+        scrollable ? position == 1 && count >= 1 : resultSet.row == offset + 1
+    }
+
+    @Override
+    boolean isLast() throws SQLException {
+        if (!scrollable)
+            return resultSet.last
+
+        if (position < 1 || position > count)
+            return false
+
+        boolean last = !read(position + 1)
+        resultSet.absolute(offset + position)
+        last
+    }
+
+    /**
+     * Moves scrollable result set to the row of the window, 0 being before the first row. Rows are read up to it
+     * first, so each row is checked against the limit once.
+     */
+    private boolean moveTo(int row) throws SQLException {
+        if (row <= 0) {
+            position = 0
+            resultSet.absolute(offset)
+            return false
+        }
+
+        if (!read(row)) {
+            position = count + 1
+            resultSet.afterLast()
+            return false
+        }
+
+        position = row
+        resultSet.absolute(offset + row)
+    }
+
+    /**
+     * Reads rows of a scrollable result set until the window has the given number of rows or its end is reached,
+     * leaving the result set on any row. Returns true if the window has the rows.
+     */
+    private boolean read(int rows) throws SQLException {
+        if (count >= rows)
+            return true
+
+        if (complete)
+            return false
+
+        resultSet.absolute(offset + count)
+
+        while (count < rows) {
+            if (!resultSet.next() || !accept()) {
+                complete = true
+                return false
+            }
+
+            count++
+        }
+
+        true
+    }
+
+    /**
+     * Checks the current row against the limit and adds its size.
+     */
+    private boolean accept() throws SQLException {
+        if (limit == null)
+            return true
+
+        if (!limit.accept())
+            return false
+
+        limit.add(resultSet, columnCount)
+        true
+    }
+
+    // stops the query: closing a streamed result would otherwise read all of its remaining rows
+    private void cancel() {
+        try {
+            resultSet.statement?.cancel()
+        } catch (SQLException | UnsupportedOperationException ignored) {
+            // merged and aggregated results stop their series themselves
+        }
+    }
+
+    /**
+     * Returns <code>truncated</code> and <code>cursor</code> of the next page if the result was truncated by the
+     * limit, otherwise an empty map.
+     */
+    Map getTruncation() {
+        limit?.truncated ? [truncated: true, cursor: limit.cursor] : [:]
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import java.sql.Date
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+import java.sql.SQLException
+import java.sql.Time
+import java.sql.Timestamp
+
+/**
+ * Forward-only, read-only result set over rows merged by {@link ChartsSeriesMerger} or {@link ChartsMergeJoin}.
+ * Supports the getters used by the row decoder and appearance scripts; other methods throw
+ * {@link UnsupportedOperationException}. Result sets created by {@link #scrollable} hold their rows and can be
+ * scrolled.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class MergedResultSet implements ResultSet {
+
+    @Delegate
+    private final ResultSet unsupported = [:] as ResultSet
+
+    private final ResultSetMetaData metaData
+    private final Closure<Object[]> reader
+    private final List<Object[]> rows
+    private final Map<String, Integer> columns = [:]
+
+    private Object[] current
+    private int row = 0
+    private boolean finished = false
+    private boolean lastNull = false
+    private boolean closed = false
+
+    /**
+     * Creates result set reading rows with the reader, which returns null after the last row.
+     */
+    MergedResultSet(ResultSetMetaData metaData, Closure<Object[]> reader) {
+        this(metaData, reader, null)
+    }
+
+    private MergedResultSet(ResultSetMetaData metaData, Closure<Object[]> reader, List<Object[]> rows) {
+        this.metaData = metaData
+        this.reader = reader
+        this.rows = rows
+
+        for (int i = metaData.columnCount; i >= 1; i--) {
+            columns[metaData.getColumnLabel(i).toLowerCase()] = i
+        }
+    }
+
+    /**
+     * Creates scrollable result set holding all rows of the reader.
+     */
+    static MergedResultSet scrollable(ResultSetMetaData metaData, Closure<Object[]> reader) {
+        List<Object[]> rows = []
+
+        for (Object[] row = reader.call(); row != null; row = reader.call()) {
+            rows << row
+        }
+
+        new MergedResultSet(metaData, null, rows)
+    }
+
+    @Override
+    ResultSetMetaData getMetaData() {
+        metaData
+    }
+
+    @Override
+    boolean next() {
+        if (rows != null)
+            return moveTo(row + 1)
+
+        if (finished)
+            return false
+
+        current = reader.call()
+
+        if (current == null) {
+            finished = true
+            return false
+        }
+
+        row++
+        true
+    }
+
+    @Override
+    int getRow() {
+        current != null ? row : 0
+    }
+
+    @Override
+    boolean isAfterLast() {
+        rows != null ? rows && row > rows.size() : finished && row > 0
+    }
+
+    @Override
+    boolean isBeforeFirst() {
+        rows != null ? rows && row == 0 : !finished && row == 0
+    }
+
+    @Override
+    boolean isFirst() {
+        current != null && row == 1
+    }
+
+    @Override
+    boolean isLast() {
+        if (rows == null)
+            throw new SQLException('Result set is forward-only')
+
+        current != null && row == rows.size()
+    }
+
+    @Override
+    void beforeFirst() throws SQLException {
+        moveTo(0)
+    }
+
+    @Override
+    void afterLast() throws SQLException {
+        moveTo(Integer.MAX_VALUE)
+    }
+
+    @Override
+    boolean first() throws SQLException {
+        moveTo(1)
+    }
+
+    @Override
+    boolean last() throws SQLException {
+        moveTo(rows != null ? rows.size() : 0)
+    }
+
+    @Override
+    boolean absolute(int row) throws SQLException {
+        moveTo(row < 0 && rows != null ? rows.size() + 1 + row : row)
+    }
+
+    @Override
+    boolean relative(int offset) throws SQLException {
+        moveTo(row + offset)
+    }
+
+    @Override
+    boolean previous() throws SQLException {
+        moveTo(row - 1)
+    }
+
+    @Override
+    int getType() {
+        rows != null ? TYPE_SCROLL_INSENSITIVE : TYPE_FORWARD_ONLY
+    }
+
+    @Override
+    int getConcurrency() {
+        CONCUR_READ_ONLY
+    }
+
+    @Override
+    int findColumn(String columnLabel) throws SQLException {
+        Integer column = columns[columnLabel.toLowerCase()]
+
+        if (column == null)
+            throw new SQLException("Column '${columnLabel}' not found")
+
+        column
+    }
+
+    @Override
+    boolean wasNull() {
+        lastNull
+    }
+
+    @Override
+    Object getObject(int columnIndex) throws SQLException {
+        if (current == null)
+            throw new SQLException('Result set is not positioned on a row')
+
+        Object value = current[columnIndex - 1]
+        lastNull = value == null
+        value
+    }
+
+    @Override
+    String getString(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex)
+
+        if (value instanceof Timestamp)
+            return ChartsRowDecoder.TIMESTAMP_FORMAT.get().format(value)
+
+        if (value instanceof BigDecimal)
+            return value.toPlainString()
+
+        value?.toString()
+    }
+
+    @Override
+    long getLong(int columnIndex) throws SQLException {
+        ((Number) getObject(columnIndex))?.longValue() ?: 0L
+    }
+
+    @Override
+    int getInt(int columnIndex) throws SQLException {
+        ((Number) getObject(columnIndex))?.intValue() ?: 0
+    }
+
+    @Override
+    double getDouble(int columnIndex) throws SQLException {
+        ((Number) getObject(columnIndex))?.doubleValue() ?: 0d
+    }
+
+    @Override
+    BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex)
+        value == null || value instanceof BigDecimal ? value : new BigDecimal(value.toString())
+    }
+
+    @Override
+    boolean getBoolean(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex)
+        value instanceof Number ? value.longValue() != 0 : value as boolean
+    }
+
+    @Override
+    Timestamp getTimestamp(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex)
+        value == null || value instanceof Timestamp ? value : new Timestamp(((java.util.Date) value).time)
+    }
+
+    @Override
+    Date getDate(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex)
+        value == null || value instanceof Date ? value : new Date(((java.util.Date) value).time)
+    }
+
+    @Override
+    Time getTime(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex)
+        value == null || value instanceof Time ? value : new Time(((java.util.Date) value).time)
+    }
+
+    @Override
+    Object getObject(String columnLabel) throws SQLException {
+        getObject(findColumn(columnLabel))
+    }
+
+    @Override
+    String getString(String columnLabel) throws SQLException {
+        getString(findColumn(columnLabel))
+    }
+
+    @Override
+    long getLong(String columnLabel) throws SQLException {
+        getLong(findColumn(columnLabel))
+    }
+
+    @Override
+    int getInt(String columnLabel) throws SQLException {
+        getInt(findColumn(columnLabel))
+    }
+
+    @Override
+    double getDouble(String columnLabel) throws SQLException {
+        getDouble(findColumn(columnLabel))
+    }
+
+    @Override
+    BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+        getBigDecimal(findColumn(columnLabel))
+    }
+
+    @Override
+    boolean getBoolean(String columnLabel) throws SQLException {
+        getBoolean(findColumn(columnLabel))
+    }
+
+    @Override
+    Timestamp getTimestamp(String columnLabel) throws SQLException {
+        getTimestamp(findColumn(columnLabel))
+    }
+
+    @Override
+    Date getDate(String columnLabel) throws SQLException {
+        getDate(findColumn(columnLabel))
+    }
+
+    @Override
+    Time getTime(String columnLabel) throws SQLException {
+        getTime(findColumn(columnLabel))
+    }
+
+    private boolean moveTo(int target) {
+        if (rows == null)
+            throw new SQLException('Result set is forward-only')
+
+        row = Math.max(0, Math.min(target, rows.size() + 1))
+        current = row >= 1 && row <= rows.size() ? rows[row - 1] : null
+        current != null
+    }
+
+    @Override
+    void close() {
+        closed = true
+    }
+
+    @Override
+    boolean isClosed() {
+        closed
+    }
+
+}
@@ -15,11 +15,15 @@
  */
 package grails.plugin.console.charts.client.application;
 
+import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.event.shared.GwtEvent;
 import com.google.gwt.http.client.*;
+import com.google.gwt.json.client.JSONArray;
 import com.google.gwt.json.client.JSONObject;
 import com.google.gwt.json.client.JSONParser;
 import com.google.gwt.json.client.JSONValue;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.user.client.Window;
 import com.google.web.bindery.autobean.shared.AutoBeanCodex;
 import com.google.web.bindery.event.shared.EventBus;
@@ -40,6 +44,9 @@ import grails.plugin.console.charts.shared.ConnectStatus;
 import grails.plugin.console.charts.shared.events.ConnectedEvent;
 import grails.plugin.console.charts.shared.events.ConnectedHandler;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
  */
@@ -61,6 +68,14 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
 
         void view(String type, JSONObject result);
 
+        void append(JSONObject result);
+
+        void timing(String timing);
+
+        void appendPage(JSONObject result);
+
+        void truncated(boolean truncated, int rows);
+
     }
 
     @ContentSlot
@@ -77,6 +92,16 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
 
     JSONObject result;
 
+    private Request currentRequest;
+    private String currentQueryId;
+
+    private Timer refreshTimer;
+    private JavaScriptObject liveSource;
+    private String categoryField;
+    private String cursor;
+    private String cursorSince;
+    private int loadedRows;
+
     public AbstractApplicationPresenter(final EventBus eventBus,
                                         final MyView view,
                                         final MyProxy proxy,
@@ -97,6 +122,36 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
         String appearance = request.getParameter(ParameterTokens.APPEARANCE, null);
         String view = request.getParameter(ParameterTokens.VIEW, DEFAULT_VIEW);
         String connectionString = request.getParameter(ParameterTokens.CONNECTION_STRING, null);
+        String refresh = request.getParameter(ParameterTokens.REFRESH, null);
+        String aggregate = request.getParameter(ParameterTokens.AGGREGATE, null);
+        Map<String, String> parameters = new HashMap<String, String>();
+
+        for (String name : request.getParameterNames()) {
+            if (name.startsWith(AppUtils.PARAMETER_PREFIX)) {
+                parameters.put(name.substring(AppUtils.PARAMETER_PREFIX.length()),
+                        URL.decodePathSegment(request.getParameter(name, "")));
+            }
+        }
+
+        if (!parameters.equals(AppUtils.PARAMETERS)) {
+            AppUtils.PARAMETERS = parameters;
+            result = null;
+        }
+
+        if (aggregate != null) {
+            aggregate = URL.decodePathSegment(aggregate);
+        }
+
+        if (aggregate == null ? AppUtils.AGGREGATE != null : !aggregate.equals(AppUtils.AGGREGATE)) {
+            AppUtils.AGGREGATE = aggregate;
+            result = null;
+        }
+
+        try {
+            AppUtils.REFRESH = refresh != null ? Integer.parseInt(refresh) : 0;
+        } catch (NumberFormatException e) {
+            AppUtils.REFRESH = 0;
+        }
 
         if (connectionString != null)
             AppUtils.CONNECTION_STRING = URL.decodePathSegment(connectionString);
@@ -124,12 +179,21 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
 
     @Override
     public void onViewChanged(String view) {
-        PlaceRequest request = new PlaceRequest.Builder().nameToken(NameTokens.HOME)
+        PlaceRequest.Builder builder = new PlaceRequest.Builder().nameToken(NameTokens.HOME)
                 .with(ParameterTokens.QUERY, AppUtils.encodeBase64(URL.encodePathSegment(AppUtils.QUERY)))
                 .with(ParameterTokens.CONNECTION_STRING, URL.encodePathSegment(AppUtils.CONNECTION_STRING))
-                .with(ParameterTokens.VIEW, view).build();
+                .with(ParameterTokens.VIEW, view);
 
-        placeManager.revealPlace(request);
+        for (Map.Entry<String, String> parameter : AppUtils.PARAMETERS.entrySet()) {
+            builder = builder.with(AppUtils.PARAMETER_PREFIX + parameter.getKey(),
+                    URL.encodePathSegment(parameter.getValue()));
+        }
+
+        if (AppUtils.AGGREGATE != null) {
+            builder = builder.with(ParameterTokens.AGGREGATE, URL.encodePathSegment(AppUtils.AGGREGATE));
+        }
+
+        placeManager.revealPlace(builder.build());
     }
 
     @Override
@@ -137,6 +201,13 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
         addToPopupSlot(sharePresenter);
     }
 
+    @Override
+    public void onLoadMoreClicked() {
+        if (currentRequest == null && cursor != null) {
+            sendDataRequest(cursorSince, cursor);
+        }
+    }
+
     @Override
     public void onConnected(ConnectedEvent event) {
         AppUtils.CONNECTION_STRING = event.getConnectionString();
@@ -203,29 +274,116 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
     }
 
     private void loadData() {
+        cancelCurrentRequest();
+        cancelRefresh();
+
         getView().loading();
 
+        cursor = null;
+        cursorSince = null;
+        loadedRows = 0;
+
+        sendDataRequest(null, null);
+    }
+
+    /**
+     * Loads rows from the last category shown on, replacing rows of that category and appending newer ones. Skipped
+     * while a truncated result has pages left.
+     */
+    private void refresh() {
+        if (currentRequest != null || categoryField == null || cursor != null) {
+            return;
+        }
+
+        String since = AppUtils.lastCategory(AppUtils.getDataProvider(), categoryField);
+
+        if (since == null) {
+            return;
+        }
+
+        sendDataRequest(since, null);
+    }
+
+    /**
+     * Loads the chart, rows from the <code>since</code> category on or, with a cursor, the next page of a truncated
+     * result.
+     */
+    private void sendDataRequest(final String since, final String page) {
+        final String queryId = System.currentTimeMillis() + "-" + Random.nextInt();
+
         try {
-            RequestBuilder rb = new RequestBuilder(RequestBuilder.GET, AppUtils.getDataPath() +
+            String url = AppUtils.getDataPath() +
                     "?query=" + URL.encodeQueryString(AppUtils.encodeBase64(AppUtils.QUERY)) +
                     "&appearance=" + URL.encodePathSegment(AppUtils.encodeBase64(AppUtils.APPEARANCE)) +
-                    "&connectionString=" + URL.encodePathSegment(AppUtils.CONNECTION_STRING));
+                    "&connectionString=" + URL.encodePathSegment(AppUtils.CONNECTION_STRING) +
+                    "&format=columnar&delta=true&points=" + AppUtils.DEFAULT_WIDTH +
+                    "&queryId=" + URL.encodeQueryString(queryId) + AppUtils.getParametersQuery();
+
+            if (since != null) {
+                url += "&since=" + URL.encodeQueryString(since) + "&category=" + URL.encodeQueryString(categoryField);
+            }
+
+            if (page != null) {
+                url += "&cursor=" + URL.encodeQueryString(page);
+            }
+
+            RequestBuilder rb = new RequestBuilder(RequestBuilder.GET, url);
 
             rb.setCallback(new RequestCallback() {
                 @Override
                 public void onResponseReceived(Request request, Response response) {
+                    if (request != currentRequest) {
+                        return;
+                    }
+
+                    currentRequest = null;
+                    currentQueryId = null;
+
                     try {
                         JSONValue value = JSONParser.parseStrict(response.getText());
                         result = value.isObject();
 
                         if (result.get("error") != null) {
-                            getView().error(result);
+                            if (page != null) {
+                                Window.alert("Error occurred: " + result.get("text"));
+                            } else if (since == null) {
+                                getView().error(result);
+                            }
+                            return;
+                        }
+
+                        if (result.get("values") != null) {
+                            result.put("content", new JSONArray(AppUtils.expandColumnar(result.getJavaScriptObject())));
+                        }
+
+                        if (page != null) {
+                            getView().appendPage(result);
+                            updateTruncation(result, since, true);
+                            scheduleRefresh();
+                            return;
+                        }
+
+                        if (since != null) {
+                            getView().append(result);
+                            updateTruncation(result, since, false);
                             return;
                         }
 
                         getView().view(AppUtils.VIEW, result);
+                        getView().timing(AppUtils.formatServerTiming(response.getHeader("Server-Timing")));
+                        updateTruncation(result, null, true);
+
+                        JSONArray columns = result.get("columns") != null ? result.get("columns").isArray() : null;
+                        categoryField = columns != null && columns.size() > 1 && columns.get(0).isString() != null ?
+                                columns.get(0).isString().stringValue() : null;
+
+                        scheduleRefresh();
                     } catch (Exception exception) {
-                        getView().error("Can't parse data JSON: " + exception.getMessage());
+                        if (page != null) {
+                            Window.alert("Can't parse data JSON: " + exception.getMessage());
+                        } else if (since == null) {
+                            getView().error("Can't parse data JSON: " + exception.getMessage());
+                        }
                     } finally {
                         result = null;
                     }
@@ -233,14 +391,144 @@ public class AbstractApplicationPresenter extends Presenter<AbstractApplicationP
 
                 @Override
                 public void onError(Request request, Throwable exception) {
-                    getView().error("Error occurred: " + exception.getMessage());
+                    if (request != currentRequest) {
+                        return;
+                    }
+
+                    currentRequest = null;
+                    currentQueryId = null;
+
+                    if (page != null) {
+                        Window.alert("Error occurred: " + exception.getMessage());
+                    } else if (since == null) {
+                        getView().error("Error occurred: " + exception.getMessage());
+                    }
                 }
             });
 
-            rb.send();
+            currentQueryId = queryId;
+            currentRequest = rb.send();
         } catch (RequestException e) {
-            getView().error("Error occurred: " + e.getMessage());
+            if (page != null) {
+                Window.alert("Error occurred: " + e.getMessage());
+            } else if (since == null) {
+                getView().error("Error occurred: " + e.getMessage());
+            }
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Keeps the cursor of a truncated result, with the <code>since</code> category of an incremental one, so its
+     * next page is loaded from the same query.
+     */
+    private void updateTruncation(JSONObject result, String since, boolean counted) {
+        cursor = result.get("cursor") != null && result.get("cursor").isString() != null ?
+                result.get("cursor").isString().stringValue() : null;
+        cursorSince = cursor != null ? since : null;
+
+        if (counted && result.get("count") != null && result.get("count").isNumber() != null) {
+            loadedRows += (int) result.get("count").isNumber().doubleValue();
+        }
+
+        getView().truncated(cursor != null, loadedRows);
+    }
+
+    /**
+     * Starts refreshing once all pages of a truncated result are loaded.
+     */
+    private void scheduleRefresh() {
+        if (AppUtils.REFRESH <= 0 || categoryField == null || cursor != null || refreshTimer != null ||
+                liveSource != null) {
+            return;
+        }
+
+        // pushed updates when the browser supports them, charts shaped by appearance scripts are polled
+        if (AppUtils.isLiveSupported() && (AppUtils.APPEARANCE == null || AppUtils.APPEARANCE.trim().isEmpty())) {
+            String url = AppUtils.getLivePath() +
+                    "?query=" + URL.encodeQueryString(AppUtils.encodeBase64(AppUtils.QUERY)) +
+                    "&connectionString=" + URL.encodeQueryString(AppUtils.CONNECTION_STRING) +
+                    "&points=" + AppUtils.DEFAULT_WIDTH + "&interval=" + AppUtils.REFRESH +
+                    AppUtils.getParametersQuery();
+
+            liveSource = openLiveSource(url);
+            return;
+        }
+
+        refreshTimer = new Timer() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        };
+        refreshTimer.scheduleRepeating(AppUtils.REFRESH * 1000);
+    }
+
+    private void cancelRefresh() {
+        if (refreshTimer != null) {
+            refreshTimer.cancel();
+            refreshTimer = null;
+        }
+
+        if (liveSource != null) {
+            closeLiveSource(liveSource);
+            liveSource = null;
+        }
+
+        categoryField = null;
+    }
+
+    private void cancelCurrentRequest() {
+        if (currentRequest == null) {
+            return;
+        }
+
+        currentRequest.cancel();
+        currentRequest = null;
+
+        RequestBuilder rb = new RequestBuilder(RequestBuilder.GET, AppUtils.getCancelPath() +
+                "?queryId=" + URL.encodeQueryString(currentQueryId));
+        currentQueryId = null;
+
+        try {
+            rb.sendRequest(null, new RequestCallback() {
+                @Override
+                public void onResponseReceived(Request request, Response response) {
+                }
+
+                @Override
+                public void onError(Request request, Throwable exception) {
+                }
+            });
+        } catch (RequestException e) {
+            // ignore, query will finish on its own
+        }
+    }
+
+    private void onLiveRows(JavaScriptObject data) {
+        getView().append(new JSONObject(data));
+    }
+
+    /**
+     * Subscribes to live chart events, <code>full</code> and <code>delta</code> rows replace rows of the chart from
+     * their first category on.
+     */
+    private native JavaScriptObject openLiveSource(String url) /*-{
+        var presenter = this;
+        var source = new $wnd.EventSource(url);
+        var listener = function (e) {
+            var data = JSON.parse(e.data);
+            data.content = @grails.plugin.console.charts.client.application.AppUtils::expandRows(Lcom/google/gwt/core/client/JavaScriptObject;)(data);
+            presenter.@grails.plugin.console.charts.client.application.AbstractApplicationPresenter::onLiveRows(Lcom/google/gwt/core/client/JavaScriptObject;)(data);
+        };
+
+        source.addEventListener('full', $entry(listener));
+        source.addEventListener('delta', $entry(listener));
+
+        return source;
+    }-*/;
+
+    private static native void closeLiveSource(JavaScriptObject source) /*-{
+        source.close();
+    }-*/;
+
+}
@@ -16,11 +16,16 @@
 package grails.plugin.console.charts.client.application;
 
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.http.client.URL;
 import com.google.web.bindery.autobean.shared.AutoBean;
 import com.google.web.bindery.autobean.shared.AutoBeanFactory;
 import grails.plugin.console.charts.shared.ConnectStatus;
 import grails.plugin.console.charts.shared.ConnectionDetails;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
  */
@@ -38,14 +43,72 @@ public class AppUtils {
 
     public static Integer DEFAULT_WIDTH = 900;
     public static Integer CURRENT_HEIGHT = 500;
+    public static Integer REFRESH = 0;
+
+    public static final String PARAMETER_PREFIX = "param.";
 
     public static String CONNECTION_STRING = null;
     public static String QUERY;
     public static String APPEARANCE;
     public static String VIEW;
+    public static String AGGREGATE;
+    public static Map<String, String> PARAMETERS = new HashMap<String, String>();
 
     public static ConnectStatus CONNECT_STATUS = null;
 
+    /**
+     * Returns named query parameters as <code>&param.name=value</code> request parameters, followed by the
+     * aggregation of the chart.
+     */
+    public static String getParametersQuery() {
+        StringBuilder query = new StringBuilder();
+
+        for (Map.Entry<String, String> parameter : PARAMETERS.entrySet()) {
+            query.append("&").append(URL.encodeQueryString(PARAMETER_PREFIX + parameter.getKey()))
+                    .append("=").append(URL.encodeQueryString(parameter.getValue()));
+        }
+
+        if (AGGREGATE != null) {
+            query.append("&aggregate=").append(URL.encodeQueryString(AGGREGATE));
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Formats <code>Server-Timing</code> header of the data endpoint as <code>query 12 ms · read 3 ms</code>.
+     */
+    public static String formatServerTiming(String header) {
+        if (header == null || header.trim().isEmpty()) {
+            return null;
+        }
+
+        StringBuilder timing = new StringBuilder();
+
+        for (String metric : header.split(",")) {
+            String[] parts = metric.trim().split(";");
+            String duration = null;
+
+            for (int i = 1; i < parts.length; i++) {
+                if (parts[i].trim().startsWith("dur=")) {
+                    duration = parts[i].trim().substring(4);
+                }
+            }
+
+            if (duration == null) {
+                continue;
+            }
+
+            if (timing.length() > 0) {
+                timing.append(" \u00b7 ");
+            }
+
+            timing.append(parts[0].trim()).append(" ").append(Math.round(Double.parseDouble(duration))).append(" ms");
+        }
+
+        return timing.toString();
+    }
+
     public static native String getConnectPath() /*-{
         return $wnd.console_charts_connect_url;
     }-*/;
@@ -54,10 +117,113 @@ public class AppUtils {
         return $wnd.console_charts_data_url;
     }-*/;
 
+    public static native String getCancelPath() /*-{
+        return $wnd.console_charts_cancel_url;
+    }-*/;
+
+    public static native String getLivePath() /*-{
+        return $wnd.console_charts_live_url;
+    }-*/;
+
+    public static native boolean isLiveSupported() /*-{
+        return !!$wnd.EventSource && !!$wnd.console_charts_live_url;
+    }-*/;
+
     public static native String getLinkPath() /*-{
         return $wnd.console_charts_link_url;
     }-*/;
 
+    /**
+     * Expands columnar data response into an array of row objects usable as amCharts data provider.
+     */
+    public static native JavaScriptObject expandColumnar(final JavaScriptObject result) /*-{
+        var columns = result.columns;
+        var values = result.values;
+        var count = values.length > 0 ? values[0].length : 0;
+        var delta = result.category == 'delta';
+        var rows = new Array(count);
+        var time = 0;
+
+        for (var r = 0; r < count; r++) {
+            var row = {};
+            var category = values[0][r];
+
+            if (delta && category != null) {
+                time += category;
+                var utc = new Date(time);
+                category = new Date(utc.getUTCFullYear(), utc.getUTCMonth(), utc.getUTCDate(),
+                    utc.getUTCHours(), utc.getUTCMinutes(), utc.getUTCSeconds(), utc.getUTCMilliseconds());
+            }
+
+            row[columns[0]] = category;
+
+            for (var c = 1; c < columns.length; c++) {
+                row[columns[c]] = values[c][r];
+            }
+
+            rows[r] = row;
+        }
+
+        return rows;
+    }-*/;
+
+    /**
+     * Converts rows of a live chart event into row objects, categories in <code>yyyy-MM-dd HH:mm:ss</code> form
+     * into dates.
+     */
+    public static native JavaScriptObject expandRows(final JavaScriptObject data) /*-{
+        var columns = data.columns;
+        var pattern = /^(\d{4})-(\d{2})-(\d{2}) (\d{2}):(\d{2}):(\d{2})/;
+        var rows = new Array(data.rows.length);
+
+        for (var r = 0; r < data.rows.length; r++) {
+            var row = {};
+            var category = data.rows[r][0];
+            var match = typeof category == 'string' ? pattern.exec(category) : null;
+
+            row[columns[0]] = match ? new Date(match[1], match[2] - 1, match[3], match[4], match[5], match[6]) :
+                category;
+
+            for (var c = 1; c < columns.length; c++) {
+                row[columns[c]] = data.rows[r][c];
+            }
+
+            rows[r] = row;
+        }
+
+        return rows;
+    }-*/;
+
+    public static native JavaScriptObject getDataProvider() /*-{
+        return $wnd.console_charts_data_provider;
+    }-*/;
+
+    /**
+     * Returns category of the last row in the form sent by the server, dates as <code>yyyy-MM-dd HH:mm:ss</code>.
+     */
+    public static native String lastCategory(final JavaScriptObject rows, final String field) /*-{
+        if (!rows || rows.length == 0) {
+            return null;
+        }
+
+        var value = rows[rows.length - 1][field];
+
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof Date) {
+            var pad = function (n) {
+                return n < 10 ? '0' + n : '' + n;
+            };
+
+            return value.getFullYear() + '-' + pad(value.getMonth() + 1) + '-' + pad(value.getDate()) + ' ' +
+                pad(value.getHours()) + ':' + pad(value.getMinutes()) + ':' + pad(value.getSeconds());
+        }
+
+        return '' + value;
+    }-*/;
+
     public static native String decodeBase64(final String base64) /*-{
         return unescape(decodeURIComponent(window.atob(base64)));
     }-*/;
@@ -22,17 +22,20 @@ import com.dianaui.universal.core.client.ui.constants.AlertType;
 import com.dianaui.universal.core.client.ui.constants.IconSize;
 import com.dianaui.universal.core.client.ui.constants.IconType;
 import com.dianaui.universal.core.client.ui.html.Div;
+import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.dom.client.DivElement;
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.ScriptElement;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.event.dom.client.ClickEvent;
+import com.google.gwt.event.dom.client.ClickHandler;
 import com.google.gwt.json.client.JSONArray;
 import com.google.gwt.json.client.JSONObject;
 import com.google.gwt.uibinder.client.UiBinder;
 import com.google.gwt.uibinder.client.UiField;
 import com.google.gwt.uibinder.client.UiHandler;
 import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.ui.InlineLabel;
 import com.google.gwt.user.client.ui.IsWidget;
 import com.google.gwt.user.client.ui.LayoutPanel;
 import com.google.gwt.user.client.ui.SplitLayoutPanel;
@@ -84,6 +87,12 @@ public class ApplicationDesktopView extends ViewWithUiHandlers<ApplicationUiHand
     @UiField
     Button shareButton;
 
+    @UiField
+    InlineLabel timingLabel;
+
+    private Alert truncatedAlert;
+    private InlineLabel truncatedLabel;
+
     @Inject
     ApplicationDesktopView(final Binder binder) {
         container = new SplitLayoutPanel(3);
@@ -95,6 +104,8 @@ public class ApplicationDesktopView extends ViewWithUiHandlers<ApplicationUiHand
     public void loading() {
         clear();
 
+        timingLabel.setText("");
+
         FontAwesomeIcon loading = new FontAwesomeIcon();
         loading.getElement().setId("loading");
         loading.setType(IconType.REFRESH);
@@ -189,7 +200,9 @@ public class ApplicationDesktopView extends ViewWithUiHandlers<ApplicationUiHand
                         "  \"zoomable\": true\n" +
                         "}," : "{},";
 
-        String content = "AmCharts.makeChart(\"" + CHART_ID + "\", {" +
+        setDataProvider(result.get("content").isArray().getJavaScriptObject());
+
+        String content = "window.console_charts_chart = AmCharts.makeChart(\"" + CHART_ID + "\", {" +
                 "\"type\": \"serial\",\n" +
                 "\"theme\": \"none\",\n" +
                 "\"pathToImages\": \"http://www.amcharts.com/lib/3/images/\",\n" +
@@ -202,7 +215,7 @@ public class ApplicationDesktopView extends ViewWithUiHandlers<ApplicationUiHand
                 "  \"valueWidth\": 100\n" +
                 "},\n" +
                 "\"dataDateFormat\": \"YYYY-MM-DD HH:NN\",\n" +
-                "\"dataProvider\": " + result.get("content").toString() + ",\n" +
+                "\"dataProvider\": window.console_charts_data_provider,\n" +
                 "\"valueAxes\": [" + axes + "],\n" +
                 "\"graphs\": [" + graphs + "],\n" +
                 "\"chartScrollbar\": " + scrollbar + "\n" +
@@ -250,6 +263,63 @@ public class ApplicationDesktopView extends ViewWithUiHandlers<ApplicationUiHand
         */
     }
 
+    @Override
+    public void append(JSONObject result) {
+        JSONArray columns = result.get("columns") != null ? result.get("columns").isArray() : null;
+
+        if (columns == null || columns.size() == 0 || columns.get(0).isString() == null) {
+            return;
+        }
+
+        appendRows(result.get("content").isArray().getJavaScriptObject(), columns.get(0).isString().stringValue());
+    }
+
+    @Override
+    public void appendPage(JSONObject result) {
+        appendPageRows(result.get("content").isArray().getJavaScriptObject());
+    }
+
+    @Override
+    public void truncated(boolean truncated, int rows) {
+        if (!truncated) {
+            if (truncatedAlert != null) {
+                truncatedAlert.removeFromParent();
+                truncatedAlert = null;
+            }
+
+            return;
+        }
+
+        if (truncatedAlert == null) {
+            truncatedAlert = new Alert();
+            truncatedAlert.setType(AlertType.WARNING);
+
+            truncatedLabel = new InlineLabel();
+            truncatedAlert.add(truncatedLabel);
+
+            Button loadMoreButton = new Button();
+            loadMoreButton.setText("Load more");
+            loadMoreButton.getElement().getStyle().setMarginLeft(1, Style.Unit.EM);
+            loadMoreButton.addClickHandler(new ClickHandler() {
+                @Override
+                public void onClick(ClickEvent event) {
+                    getUiHandlers().onLoadMoreClicked();
+                }
+            });
+            truncatedAlert.add(loadMoreButton);
+
+            rightContainer.add(truncatedAlert);
+            rightContainer.getElement().insertFirst(truncatedAlert.getElement());
+        }
+
+        truncatedLabel.setText("The result is truncated to the first " + rows + " rows by the server limits.");
+    }
+
+    @Override
+    public void timing(String timing) {
+        timingLabel.setText(timing != null ? timing : "");
+    }
+
     @Override
     public void setInSlot(Object slot, IsWidget content) {
         if (slot == AbstractApplicationPresenter.TYPE_SetMainContent) {
@@ -293,7 +363,58 @@ public class ApplicationDesktopView extends ViewWithUiHandlers<ApplicationUiHand
         getUiHandlers().onShareClicked();
     }
 
+    private static native void setDataProvider(JavaScriptObject dataProvider) /*-{
+        $wnd.console_charts_data_provider = dataProvider;
+    }-*/;
+
+    /**
+     * Replaces rows of the data provider from the first appended category on and redraws the chart.
+     */
+    private static native void appendRows(JavaScriptObject rows, String field) /*-{
+        var provider = $wnd.console_charts_data_provider;
+        var chart = $wnd.console_charts_chart;
+
+        if (!provider || !chart || rows.length == 0) {
+            return;
+        }
+
+        var key = function (value) {
+            return value instanceof Date ? value.getTime() : value;
+        };
+        var first = key(rows[0][field]);
+
+        while (provider.length > 0 && key(provider[provider.length - 1][field]) >= first) {
+            provider.pop();
+        }
+
+        for (var i = 0; i < rows.length; i++) {
+            provider.push(rows[i]);
+        }
+
+        chart.validateData();
+    }-*/;
+
+    /**
+     * Adds rows of the next page of a truncated result to the end of the data provider and redraws the chart.
+     */
+    private static native void appendPageRows(JavaScriptObject rows) /*-{
+        var provider = $wnd.console_charts_data_provider;
+        var chart = $wnd.console_charts_chart;
+
+        if (!provider || !chart) {
+            return;
+        }
+
+        for (var i = 0; i < rows.length; i++) {
+            provider.push(rows[i]);
+        }
+
+        chart.validateData();
+    }-*/;
+
     private void clear() {
+        truncatedAlert = null;
+
         rightContainer.clear();
         rightContainer.getElement().removeAllChildren();
         rightContainer.setStyleName("");
@@ -26,4 +26,6 @@ public interface ApplicationUiHandlers extends UiHandlers {
 
     void onShareClicked();
 
+    void onLoadMoreClicked();
+
 }
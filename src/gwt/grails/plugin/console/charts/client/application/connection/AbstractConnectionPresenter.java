@@ -102,6 +102,7 @@ public class AbstractConnectionPresenter extends PresenterWidget<AbstractConnect
 
     private void initNewConnection() {
         ConnectionDetails details = AppUtils.BEAN_FACTORY.details().as();
+        details.setDatabaseType("mysql");
         details.setSshToggle(false);
 
         getView().getEditorDriver().edit(details);
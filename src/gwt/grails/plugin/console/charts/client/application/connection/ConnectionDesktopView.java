@@ -5,13 +5,18 @@ import com.dianaui.universal.gwtp.client.ModalViewWithUiHandlers;
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.editor.client.SimpleBeanEditorDriver;
 import com.google.gwt.event.dom.client.ClickEvent;
+import com.google.gwt.event.logical.shared.ValueChangeEvent;
+import com.google.gwt.text.shared.AbstractRenderer;
 import com.google.gwt.uibinder.client.UiBinder;
 import com.google.gwt.uibinder.client.UiField;
 import com.google.gwt.uibinder.client.UiHandler;
+import com.google.gwt.user.client.ui.ValueListBox;
 import com.google.inject.Inject;
 import com.google.web.bindery.event.shared.EventBus;
 import grails.plugin.console.charts.shared.ConnectionDetails;
 
+import java.util.Arrays;
+
 /**
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
  */
@@ -24,8 +29,18 @@ public class ConnectionDesktopView extends ModalViewWithUiHandlers<ConnectionUiH
     interface EditorDriver extends SimpleBeanEditorDriver<ConnectionDetails, ConnectionDesktopView> {
     }
 
+    private static final String[] DATABASE_TYPES = {"mysql", "postgresql", "h2"};
+    private static final String[] DATABASE_NAMES = {"MySQL", "PostgreSQL", "H2"};
+    private static final String[] DEFAULT_PORTS = {"3306", "5432", "9092"};
+
     private final EditorDriver editorDriver = GWT.create(EditorDriver.class);
 
+    @UiField(provided = true)
+    ValueListBox<String> databaseType;
+
+    @UiField
+    TextBox database;
+
     @UiField
     TextBox mysqlHostname;
 
@@ -66,9 +81,20 @@ public class ConnectionDesktopView extends ModalViewWithUiHandlers<ConnectionUiH
     public ConnectionDesktopView(Binder uiBinder, EventBus eventBus) {
         super(eventBus);
 
+        databaseType = new ValueListBox<String>(new AbstractRenderer<String>() {
+            @Override
+            public String render(String type) {
+                int index = Arrays.asList(DATABASE_TYPES).indexOf(type);
+                return index < 0 ? type : DATABASE_NAMES[index];
+            }
+        });
+        databaseType.setAcceptableValues(Arrays.asList(DATABASE_TYPES));
+
         initWidget(uiBinder.createAndBindUi(this));
 
         editorDriver.initialize(this);
+
+        updatePlaceholders(DATABASE_TYPES[0]);
     }
 
     @Override
@@ -76,6 +102,11 @@ public class ConnectionDesktopView extends ModalViewWithUiHandlers<ConnectionUiH
         return editorDriver;
     }
 
+    @UiHandler("databaseType")
+    void onDatabaseTypeChanged(ValueChangeEvent<String> event) {
+        updatePlaceholders(event.getValue());
+    }
+
     // TODO switch to ValueChangeEvent
     @UiHandler("sshToggle")
     void onSshClicked(ClickEvent event) {
@@ -86,6 +117,14 @@ public class ConnectionDesktopView extends ModalViewWithUiHandlers<ConnectionUiH
         }
     }
 
+    // the server uses default port of the database when none is given, H2 is embedded when there is no host
+    private void updatePlaceholders(String type) {
+        int index = Arrays.asList(DATABASE_TYPES).indexOf(type);
+
+        mysqlPort.getElement().setAttribute("placeholder", index < 0 ? "" : DEFAULT_PORTS[index]);
+        mysqlHostname.getElement().setAttribute("placeholder", "h2".equals(type) ? "embedded" : "");
+    }
+
     @UiHandler("cancelButton")
     void onCancelClicked(ClickEvent event) {
         hide();
@@ -79,6 +79,8 @@ public class AbstractSharePresenter extends PresenterWidget<AbstractSharePresent
         details.setQuery(AppUtils.QUERY);
         details.setAppearance(AppUtils.APPEARANCE);
         details.setView(AppUtils.VIEW);
+        details.setParameters(AppUtils.PARAMETERS);
+        details.setAggregate(AppUtils.AGGREGATE);
 
         // Retrieve the AutoBean controller
         AutoBean<ShareDetails> bean = AutoBeanUtils.getAutoBean(details);
@@ -24,5 +24,7 @@ public class ParameterTokens {
     public static final String APPEARANCE = "appearance";
     public static final String VIEW = "view";
     public static final String CONNECTION_STRING = "connectionString";
+    public static final String REFRESH = "refresh";
+    public static final String AGGREGATE = "aggregate";
 
 }
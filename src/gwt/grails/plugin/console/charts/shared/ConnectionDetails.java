@@ -22,6 +22,19 @@ import java.io.Serializable;
  */
 public interface ConnectionDetails extends Serializable {
 
+    /**
+     * Returns type of the database, <code>mysql</code> (default), <code>postgresql</code> or <code>h2</code>. The
+     * server, port, username and password properties keep their <code>mysql</code> names for all databases, so
+     * connection strings of existing links stay valid.
+     */
+    String getDatabaseType();
+
+    void setDatabaseType(String type);
+
+    String getDatabase();
+
+    void setDatabase(String database);
+
     String getMysqlHostname();
 
     void setMysqlHostname(String hostname);
@@ -16,6 +16,7 @@
 package grails.plugin.console.charts.shared;
 
 import java.io.Serializable;
+import java.util.Map;
 
 /**
  * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
@@ -54,4 +55,12 @@ public interface ShareDetails extends Serializable {
 
     void setEditable(Boolean editable);
 
+    Map<String, String> getParameters();
+
+    void setParameters(Map<String, String> parameters);
+
+    String getAggregate();
+
+    void setAggregate(String aggregate);
+
 }
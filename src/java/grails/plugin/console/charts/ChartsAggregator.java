@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import javax.sql.rowset.RowSetMetaDataImpl;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Aggregates raw rows with a date/time category into fixed-width time buckets in a single pass. The specification
+ * is the bucket width followed by functions of value columns, e.g. <code>hour,visits:sum,load:avg,errors:max</code>.
+ * Widths are <code>minute</code>, <code>hour</code>, <code>day</code> or a number with <code>s</code>,
+ * <code>m</code>, <code>h</code> or <code>d</code> (<code>15m</code>); buckets are aligned to local wall clock time.
+ * Functions are <code>sum</code>, <code>avg</code>, <code>min</code>, <code>max</code> and <code>count</code>
+ * (non-null values); numeric columns without a function are summed, other columns are counted.
+ * <p>
+ * Accumulators are primitive arrays indexed by bucket and column, so rows are read without boxing and memory
+ * depends on the number of buckets only. Buckets are returned ordered by time.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsAggregator {
+
+    public enum Function {
+        SUM, AVG, MIN, MAX, COUNT
+    }
+
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final long width;
+    private final Map<String, Function> columnFunctions;
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    private String[] labels;
+    private Function[] functions;
+    private boolean[] numeric;
+    private boolean[] booleans;
+    private int values;
+
+    private int buckets;
+    private long[] keys;
+    private double[] sums;
+    private double[] mins;
+    private double[] maxs;
+    private long[] counts;
+    private int[] slots;
+    private boolean sorted = true;
+    private long rows;
+
+    private long[] order;
+    private int position;
+
+    public ChartsAggregator(long width, Map<String, Function> columnFunctions) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive");
+        }
+
+        this.width = width;
+        this.columnFunctions = columnFunctions;
+    }
+
+    /**
+     * Creates aggregator from the specification, see the class description.
+     */
+    public static ChartsAggregator parse(String spec) {
+        String[] parts = spec.split(",");
+        Map<String, Function> functions = new HashMap<String, Function>();
+
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int colon = part.lastIndexOf(':');
+
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected column:function, got '" + part + "'");
+            }
+
+            String function = part.substring(colon + 1).trim().toUpperCase(Locale.ENGLISH);
+
+            try {
+                functions.put(part.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), Function.valueOf(function));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown aggregate function '" + function + "'");
+            }
+        }
+
+        return new ChartsAggregator(parseWidth(parts[0].trim()), functions);
+    }
+
+    static long parseWidth(String width) {
+        String value = width.toLowerCase(Locale.ENGLISH);
+
+        if (value.equals("minute")) {
+            return 60000L;
+        }
+
+        if (value.equals("hour")) {
+            return 3600000L;
+        }
+
+        if (value.equals("day")) {
+            return 86400000L;
+        }
+
+        if (value.length() > 1) {
+            long unit;
+
+            switch (value.charAt(value.length() - 1)) {
+                case 's':
+                    unit = 1000L;
+                    break;
+                case 'm':
+                    unit = 60000L;
+                    break;
+                case 'h':
+                    unit = 3600000L;
+                    break;
+                case 'd':
+                    unit = 86400000L;
+                    break;
+                default:
+                    unit = 0;
+            }
+
+            if (unit > 0) {
+                try {
+                    return Long.parseLong(value.substring(0, value.length() - 1)) * unit;
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown bucket width '" + width + "'");
+    }
+
+    /**
+     * Reads all rows of the result set into buckets. Rows with a null category are skipped.
+     */
+    public void aggregate(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        int categoryType = metaData.getColumnType(1);
+
+        if (categoryType != Types.DATE && categoryType != Types.TIMESTAMP) {
+            throw new SQLException("Aggregation requires a date/time category (first) column");
+        }
+
+        values = columnCount - 1;
+        labels = new String[columnCount];
+        functions = new Function[values];
+        numeric = new boolean[values];
+        booleans = new boolean[values];
+
+        for (int i = 0; i < columnCount; i++) {
+            String label = metaData.getColumnLabel(i + 1);
+            labels[i] = label != null && !label.isEmpty() ? label : metaData.getColumnName(i + 1);
+        }
+
+        for (int c = 0; c < values; c++) {
+            int type = ChartsRowDecoder.columnType(metaData, c + 2);
+            ChartsRowDecoder.ColumnReader reader = ChartsRowDecoder.readerFor(type);
+            booleans[c] = reader == ChartsRowDecoder.ColumnReader.BOOLEAN;
+            numeric[c] = booleans[c] || reader == ChartsRowDecoder.ColumnReader.LONG ||
+                    reader == ChartsRowDecoder.ColumnReader.DOUBLE || reader == ChartsRowDecoder.ColumnReader.DECIMAL;
+
+            Function function = columnFunctions.get(labels[c + 1].toLowerCase(Locale.ENGLISH));
+
+            if (function == null) {
+                function = numeric[c] ? Function.SUM : Function.COUNT;
+            } else if (function != Function.COUNT && !numeric[c]) {
+                throw new SQLException("Column '" + labels[c + 1] + "' is not numeric, it can only be counted");
+            }
+
+            functions[c] = function;
+        }
+
+        allocate(INITIAL_BUCKETS);
+
+        while (rs.next()) {
+            Timestamp timestamp = rs.getTimestamp(1);
+
+            if (timestamp == null) {
+                continue;
+            }
+
+            int bucket = bucket(bucketStart(timestamp.getTime()));
+            int offset = bucket * values;
+
+            for (int c = 0; c < values; c++) {
+                if (numeric[c]) {
+                    double value = booleans[c] ? (rs.getBoolean(c + 2) ? 1 : 0) : rs.getDouble(c + 2);
+
+                    if (rs.wasNull()) {
+                        continue;
+                    }
+
+                    int i = offset + c;
+
+                    sums[i] += value;
+
+                    if (counts[i] == 0 || value < mins[i]) {
+                        mins[i] = value;
+                    }
+
+                    if (counts[i] == 0 || value > maxs[i]) {
+                        maxs[i] = value;
+                    }
+
+                    counts[i]++;
+                } else if (rs.getObject(c + 2) != null) {
+                    counts[offset + c]++;
+                }
+            }
+
+            rows++;
+        }
+
+        order = Arrays.copyOf(keys, buckets);
+
+        if (!sorted) {
+            Arrays.sort(order);
+        }
+
+        position = 0;
+    }
+
+    /**
+     * Returns metadata of the aggregated rows: the category as timestamp, counts as BIGINT and other functions as
+     * DOUBLE, labels kept.
+     */
+    public ResultSetMetaData getMetaData() throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(values + 1);
+
+        for (int i = 0; i <= values; i++) {
+            metaData.setColumnLabel(i + 1, labels[i]);
+            metaData.setColumnName(i + 1, labels[i]);
+            metaData.setColumnType(i + 1, i == 0 ? Types.TIMESTAMP :
+                    functions[i - 1] == Function.COUNT ? Types.BIGINT : Types.DOUBLE);
+            metaData.setNullable(i + 1, ResultSetMetaData.columnNullable);
+        }
+
+        return metaData;
+    }
+
+    /**
+     * Returns the next bucket as a row, or null after the last one.
+     */
+    public Object[] next() {
+        if (order == null || position >= order.length) {
+            return null;
+        }
+
+        long key = order[position++];
+        int offset = (sorted ? position - 1 : find(key)) * values;
+        Object[] row = new Object[values + 1];
+
+        row[0] = new Timestamp(key);
+
+        for (int c = 0; c < values; c++) {
+            int i = offset + c;
+            long count = counts[i];
+
+            switch (functions[c]) {
+                case SUM:
+                    row[c + 1] = count > 0 ? sums[i] : null;
+                    break;
+                case AVG:
+                    row[c + 1] = count > 0 ? sums[i] / count : null;
+                    break;
+                case MIN:
+                    row[c + 1] = count > 0 ? mins[i] : null;
+                    break;
+                case MAX:
+                    row[c + 1] = count > 0 ? maxs[i] : null;
+                    break;
+                default:
+                    row[c + 1] = count;
+            }
+        }
+
+        return row;
+    }
+
+    /**
+     * Returns the number of raw rows aggregated.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns start of the bucket holding the time, aligned in local time.
+     */
+    long bucketStart(long time) {
+        long local = time + timeZone.getOffset(time);
+        long remainder = local % width;
+
+        if (remainder < 0) {
+            remainder += width;
+        }
+
+        long start = local - remainder;
+
+        return start - timeZone.getOffset(start - timeZone.getOffset(time));
+    }
+
+    /**
+     * Returns index of the bucket starting at the key, adding the bucket if it is new.
+     */
+    private int bucket(long key) {
+        // rows of chart queries mostly come ordered by time
+        if (buckets > 0 && keys[buckets - 1] == key) {
+            return buckets - 1;
+        }
+
+        int found = find(key);
+
+        if (found >= 0) {
+            return found;
+        }
+
+        if (buckets == keys.length) {
+            allocate(keys.length * 2);
+        }
+
+        if (buckets > 0 && key < keys[buckets - 1]) {
+            sorted = false;
+        }
+
+        int bucket = buckets++;
+        keys[bucket] = key;
+        insert(key, bucket);
+
+        return bucket;
+    }
+
+    private int find(long key) {
+        int mask = slots.length - 1;
+
+        for (int slot = hash(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slots[slot] - 1] == key) {
+                return slots[slot] - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private void insert(long key, int bucket) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        slots[slot] = bucket + 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = keys == null ? new long[capacity] : Arrays.copyOf(keys, capacity);
+        sums = sums == null ? new double[capacity * values] : Arrays.copyOf(sums, capacity * values);
+        mins = mins == null ? new double[capacity * values] : Arrays.copyOf(mins, capacity * values);
+        maxs = maxs == null ? new double[capacity * values] : Arrays.copyOf(maxs, capacity * values);
+        counts = counts == null ? new long[capacity * values] : Arrays.copyOf(counts, capacity * values);
+
+        // hash table at most half full
+        slots = new int[capacity * 2];
+
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            insert(keys[bucket], bucket);
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
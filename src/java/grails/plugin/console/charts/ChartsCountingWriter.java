@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Counts bytes written through it as they are encoded in UTF-8.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsCountingWriter extends FilterWriter {
+
+    private long bytes;
+
+    public ChartsCountingWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(c);
+        bytes += length((char) c);
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+
+        for (int i = offset; i < offset + length; i++) {
+            bytes += length(buffer[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        out.write(str, offset, length);
+
+        for (int i = offset; i < offset + length; i++) {
+            bytes += length(str.charAt(i));
+        }
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns UTF-8 length of the char; surrogates count 2 bytes each, 4 per pair.
+     */
+    private static int length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+
+        return 3;
+    }
+
+}
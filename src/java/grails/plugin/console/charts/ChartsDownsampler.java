@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reduces a stream of chart rows to about {@code threshold} rows with bounded memory. Rows are first collected
+ * into at most {@code 2 * threshold} buckets keeping the first and last row of each bucket and the rows with the
+ * minimum and maximum of every value column (buckets are merged pairwise when the limit is reached), then the
+ * retained rows are reduced with Largest-Triangle-Three-Buckets using the category as x and every value column as y.
+ * The x of a row is passed by the caller (see {@link ChartsRowDecoder#readCategoryX}) or taken from a date/time or
+ * numeric category; rows without one take the x of the previous row.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsDownsampler {
+
+    private final int threshold;
+    private final int maxBuckets;
+    private List<Bucket> buckets = new ArrayList<Bucket>();
+    private long span = 1;
+    private long index = 0;
+    private double x = 0;
+
+    public ChartsDownsampler(int threshold) {
+        this.threshold = Math.max(3, threshold);
+        this.maxBuckets = this.threshold * 2;
+    }
+
+    public void add(List<Object> row) {
+        Object category = row.isEmpty() ? null : row.get(0);
+
+        if (category instanceof Date) {
+            add(((Date) category).getTime(), row);
+        } else if (category instanceof Number) {
+            add(((Number) category).doubleValue(), row);
+        } else {
+            add(Double.NaN, row);
+        }
+    }
+
+    /**
+     * Adds the row with the given x, NaN for rows without category.
+     */
+    public void add(double x, List<Object> row) {
+        Bucket bucket = buckets.isEmpty() ? null : buckets.get(buckets.size() - 1);
+
+        if (bucket == null || bucket.count >= span) {
+            if (buckets.size() >= maxBuckets) {
+                merge();
+            }
+
+            bucket = buckets.isEmpty() ? null : buckets.get(buckets.size() - 1);
+
+            if (bucket == null || bucket.count >= span) {
+                bucket = new Bucket();
+                buckets.add(bucket);
+            }
+        }
+
+        if (!Double.isNaN(x)) {
+            this.x = x;
+        }
+
+        bucket.add(new Point(index++, this.x, row));
+    }
+
+    public long getCount() {
+        return index;
+    }
+
+    public List<List<Object>> getRows() {
+        List<Point> points = new ArrayList<Point>();
+
+        for (Bucket bucket : buckets) {
+            bucket.collect(points);
+        }
+
+        if (points.size() > threshold) {
+            points = largestTriangleThreeBuckets(points, threshold);
+        }
+
+        List<List<Object>> rows = new ArrayList<List<Object>>(points.size());
+
+        for (Point point : points) {
+            rows.add(point.row);
+        }
+
+        return rows;
+    }
+
+    private void merge() {
+        List<Bucket> merged = new ArrayList<Bucket>(buckets.size() / 2 + 1);
+
+        for (int i = 0; i < buckets.size(); i += 2) {
+            Bucket bucket = buckets.get(i);
+
+            if (i + 1 < buckets.size()) {
+                bucket.merge(buckets.get(i + 1));
+            }
+
+            merged.add(bucket);
+        }
+
+        buckets = merged;
+        span *= 2;
+    }
+
+    static List<Point> largestTriangleThreeBuckets(List<Point> data, int threshold) {
+        int size = data.size();
+        int columns = data.get(0).values.length;
+        List<Point> sampled = new ArrayList<Point>(threshold);
+        double every = (double) (size - 2) / (threshold - 2);
+        double[] avgY = new double[columns];
+        int a = 0;
+
+        sampled.add(data.get(0));
+
+        for (int i = 0; i < threshold - 2; i++) {
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            int avgLength = avgEnd - avgStart;
+            double avgX = 0;
+
+            Arrays.fill(avgY, 0);
+
+            for (int j = avgStart; j < avgEnd; j++) {
+                Point point = data.get(j);
+                avgX += point.x;
+
+                for (int c = 0; c < columns; c++) {
+                    avgY[c] += point.values[c];
+                }
+            }
+
+            avgX /= avgLength;
+
+            for (int c = 0; c < columns; c++) {
+                avgY[c] /= avgLength;
+            }
+
+            int rangeFrom = (int) Math.floor(i * every) + 1;
+            int rangeTo = (int) Math.floor((i + 1) * every) + 1;
+            Point pointA = data.get(a);
+            double maxArea = -1;
+            int next = rangeFrom;
+
+            for (int j = rangeFrom; j < rangeTo; j++) {
+                Point point = data.get(j);
+                double area = 0;
+
+                for (int c = 0; c < columns; c++) {
+                    area += Math.abs((pointA.x - avgX) * (point.values[c] - pointA.values[c]) -
+                            (pointA.x - point.x) * (avgY[c] - pointA.values[c]));
+                }
+
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+
+            sampled.add(data.get(next));
+            a = next;
+        }
+
+        sampled.add(data.get(size - 1));
+
+        return sampled;
+    }
+
+    static final Comparator<Point> BY_INDEX = new Comparator<Point>() {
+        @Override
+        public int compare(Point p1, Point p2) {
+            return p1.index < p2.index ? -1 : (p1.index == p2.index ? 0 : 1);
+        }
+    };
+
+    static class Point {
+
+        final long index;
+        final double x;
+        final List<Object> row;
+        final double[] values;
+
+        Point(long index, double x, List<Object> row) {
+            this.index = index;
+            this.x = x;
+            this.row = row;
+            this.values = new double[Math.max(1, row.size() - 1)];
+
+            for (int i = 1; i < row.size(); i++) {
+                Object value = row.get(i);
+                values[i - 1] = value instanceof Number ? ((Number) value).doubleValue() : 0;
+            }
+        }
+
+    }
+
+    static class Bucket {
+
+        long count;
+        Point first;
+        Point[] min;
+        Point[] max;
+        Point last;
+
+        void add(Point point) {
+            if (first == null) {
+                first = point;
+                min = new Point[point.values.length];
+                max = new Point[point.values.length];
+            }
+
+            for (int c = 0; c < min.length; c++) {
+                if (min[c] == null || point.values[c] < min[c].values[c]) {
+                    min[c] = point;
+                }
+
+                if (max[c] == null || point.values[c] > max[c].values[c]) {
+                    max[c] = point;
+                }
+            }
+
+            last = point;
+            count++;
+        }
+
+        void merge(Bucket other) {
+            for (int c = 0; c < min.length; c++) {
+                if (other.min[c].values[c] < min[c].values[c]) {
+                    min[c] = other.min[c];
+                }
+
+                if (other.max[c].values[c] > max[c].values[c]) {
+                    max[c] = other.max[c];
+                }
+            }
+
+            last = other.last;
+            count += other.count;
+        }
+
+        void collect(List<Point> points) {
+            Point[] candidates = new Point[min.length * 2 + 2];
+            candidates[0] = first;
+            candidates[1] = last;
+            System.arraycopy(min, 0, candidates, 2, min.length);
+            System.arraycopy(max, 0, candidates, 2 + min.length, max.length);
+            Arrays.sort(candidates, BY_INDEX);
+
+            Point previous = null;
+
+            for (Point point : candidates) {
+                if (point != previous) {
+                    points.add(point);
+                }
+
+                previous = point;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming merge-join of series ordered by a date/time or numeric category. Holds one row per series: every
+ * merged row takes the current rows of all series with the smallest category, so repeated categories within a
+ * series are matched by position like in {@link ChartsSeriesMerger}. Rows with null categories are passed through
+ * unmerged.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsMergeJoin {
+
+    private final List<ChartsSeriesStream> streams;
+    private final int[] offsets;
+    private final int columnCount;
+    private final int categoryType;
+
+    private final Object[][] heads;
+    private final Object[] values;
+    private final Object[] keys;
+    private final Object[] last;
+    private final boolean[] finished;
+
+    /**
+     * Waits for metadata of all streams. Streams are only created for series whose query is running, each wait
+     * ending with the timeout of its stream.
+     */
+    public ChartsMergeJoin(List<ChartsSeriesStream> streams) throws SQLException {
+        this.streams = streams;
+
+        int count = streams.size();
+        int[] categoryTypes = new int[count];
+
+        offsets = new int[count];
+
+        int offset = 1;
+
+        for (int i = 0; i < count; i++) {
+            ChartsSeriesStream stream = streams.get(i);
+            stream.awaitStart();
+
+            offsets[i] = offset;
+            offset += stream.getLabels().length - 1;
+            categoryTypes[i] = stream.getTypes()[0];
+        }
+
+        columnCount = offset;
+        categoryType = ChartsSeriesMerger.categoryType(categoryTypes);
+
+        heads = new Object[count][];
+        values = new Object[count];
+        keys = new Object[count];
+        last = new Object[count];
+        finished = new boolean[count];
+    }
+
+    /**
+     * Returns true if categories can be compared, otherwise the series have to be merged with
+     * {@link ChartsSeriesMerger}.
+     */
+    public boolean isSortable() {
+        return ChartsSeriesMerger.family(categoryType) != 0;
+    }
+
+    public ResultSetMetaData getMetaData() throws SQLException {
+        List<String[]> labels = new ArrayList<String[]>(streams.size());
+        List<int[]> types = new ArrayList<int[]>(streams.size());
+
+        for (ChartsSeriesStream stream : streams) {
+            labels.add(stream.getLabels());
+            types.add(stream.getTypes());
+        }
+
+        return ChartsSeriesMerger.metaData(labels, types, categoryType);
+    }
+
+    /**
+     * Returns the next merged row or null after the last one.
+     *
+     * @throws SQLException if a series fails or is not ordered by its category
+     */
+    public Object[] next() throws SQLException {
+        Object min = null;
+        int first = -1;
+
+        for (int s = 0; s < heads.length; s++) {
+            if (heads[s] == null && !finished[s]) {
+                fetch(s);
+            }
+
+            if (heads[s] == null) {
+                continue;
+            }
+
+            if (keys[s] == null) {
+                Object[] row = new Object[columnCount];
+                row[0] = values[s];
+                take(s, row);
+                return row;
+            }
+
+            if (min == null || compare(keys[s], min) < 0) {
+                min = keys[s];
+                first = s;
+            }
+        }
+
+        if (first < 0) {
+            return null;
+        }
+
+        Object[] row = new Object[columnCount];
+        row[0] = values[first];
+
+        for (int s = first; s < heads.length; s++) {
+            if (heads[s] != null && keys[s] != null && compare(keys[s], min) == 0) {
+                take(s, row);
+            }
+        }
+
+        return row;
+    }
+
+    public void close() {
+        for (ChartsSeriesStream stream : streams) {
+            stream.close();
+        }
+    }
+
+    private void fetch(int s) throws SQLException {
+        Object[] row = streams.get(s).next();
+
+        if (row == null) {
+            finished[s] = true;
+            return;
+        }
+
+        Object value = ChartsSeriesMerger.convert(row[0], categoryType);
+        Object key = ChartsSeriesMerger.sortKey(value);
+
+        if (key != null) {
+            if (last[s] != null && compare(key, last[s]) < 0) {
+                throw new SQLException("Series " + (s + 1) + " is not ordered by its category column");
+            }
+
+            last[s] = key;
+        }
+
+        heads[s] = row;
+        values[s] = value;
+        keys[s] = key;
+    }
+
+    /**
+     * Compares sort keys, which are of the same comparable class for all series.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Object key, Object other) {
+        return ((Comparable<Object>) key).compareTo(other);
+    }
+
+    private void take(int s, Object[] row) {
+        Object[] head = heads[s];
+        System.arraycopy(head, 1, row, offsets[s], head.length - 1);
+        heads[s] = null;
+    }
+
+}
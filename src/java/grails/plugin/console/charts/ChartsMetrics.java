@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanConstructorInfo;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timers and counters of the chart request pipeline. Stage timers keep latency histograms with fixed buckets;
+ * gauges read values owned by other components, e.g. cache hits. Timings of the stages run by the current request
+ * are also collected for the <code>Server-Timing</code> header. Exposed over JMX as a dynamic MBean with
+ * <code>&lt;stage&gt;.count</code>, <code>.meanMillis</code>, <code>.maxMillis</code>, <code>.p50Millis</code>,
+ * <code>.p95Millis</code> and <code>.p99Millis</code> attributes for every timer and one attribute per counter and
+ * gauge.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsMetrics implements DynamicMBean {
+
+    /**
+     * Upper bounds of the histogram buckets in milliseconds; the last bucket is unbounded.
+     */
+    static final long[] BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    private static final String[] TIMER_ATTRIBUTES = {"count", "meanMillis", "maxMillis", "p50Millis", "p95Millis",
+            "p99Millis"};
+
+    public static class Timer {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void update(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max;
+
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMeanMillis() {
+            long n = count.get();
+            return n > 0 ? totalNanos.get() / 1e6 / n : 0;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Returns upper bound of the bucket holding the percentile, or the maximum for the unbounded bucket.
+         */
+        public double percentile(double percentile) {
+            long n = count.get();
+
+            if (n == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(n * percentile / 100);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS.length; i++) {
+                seen += buckets.get(i);
+
+                if (seen >= rank) {
+                    return Math.min(BUCKETS[i], getMaxMillis());
+                }
+            }
+
+            return getMaxMillis();
+        }
+
+        public Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<String, Object>();
+            stats.put("count", getCount());
+            stats.put("meanMillis", getMeanMillis());
+            stats.put("maxMillis", getMaxMillis());
+            stats.put("p50Millis", percentile(50));
+            stats.put("p95Millis", percentile(95));
+            stats.put("p99Millis", percentile(99));
+
+            Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                histogram.put(i < BUCKETS.length ? "le" + BUCKETS[i] : "inf", buckets.get(i));
+            }
+
+            stats.put("histogram", histogram);
+
+            return stats;
+        }
+
+        Object attribute(String name) {
+            switch (name) {
+                case "count":
+                    return getCount();
+                case "meanMillis":
+                    return getMeanMillis();
+                case "maxMillis":
+                    return getMaxMillis();
+                case "p50Millis":
+                    return percentile(50);
+                case "p95Millis":
+                    return percentile(95);
+                default:
+                    return percentile(99);
+            }
+        }
+
+    }
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Callable<? extends Number>> gauges =
+            new ConcurrentHashMap<String, Callable<? extends Number>>();
+    private final ThreadLocal<Map<String, Long>> requestTimings = new ThreadLocal<Map<String, Long>>();
+
+    public Timer timer(String stage) {
+        Timer timer = timers.get(stage);
+
+        if (timer == null) {
+            Timer created = new Timer();
+            timer = timers.putIfAbsent(stage, created);
+
+            if (timer == null) {
+                timer = created;
+            }
+        }
+
+        return timer;
+    }
+
+    /**
+     * Records duration of the stage, also for the current request if its timings are collected.
+     */
+    public void record(String stage, long nanos) {
+        timer(stage).update(nanos);
+
+        Map<String, Long> timings = requestTimings.get();
+
+        if (timings != null) {
+            Long previous = timings.get(stage);
+            timings.put(stage, previous != null ? previous + nanos : nanos);
+        }
+    }
+
+    /**
+     * Runs the callable as the stage.
+     */
+    public <T> T time(String stage, Callable<T> callable) throws Exception {
+        long start = System.nanoTime();
+
+        try {
+            return callable.call();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void increment(String counter, long delta) {
+        AtomicLong value = counters.get(counter);
+
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = counters.putIfAbsent(counter, created);
+
+            if (value == null) {
+                value = created;
+            }
+        }
+
+        value.addAndGet(delta);
+    }
+
+    public void gauge(String name, Callable<? extends Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Starts collecting timings of the stages run by the current thread.
+     */
+    public void beginRequest() {
+        requestTimings.set(new LinkedHashMap<String, Long>());
+    }
+
+    /**
+     * Returns true if timings of the current thread are being collected.
+     */
+    public boolean isCollecting() {
+        return requestTimings.get() != null;
+    }
+
+    /**
+     * Returns timings in nanoseconds collected since {@link #beginRequest} without ending the collection.
+     */
+    public Map<String, Long> getRequestTimings() {
+        Map<String, Long> timings = requestTimings.get();
+        return timings != null ? new LinkedHashMap<String, Long>(timings) : new LinkedHashMap<String, Long>();
+    }
+
+    public void endRequest() {
+        requestTimings.remove();
+    }
+
+    /**
+     * Formats timings as a <code>Server-Timing</code> header value, e.g. <code>query;dur=12.5, read;dur=3.1</code>.
+     */
+    public static String serverTiming(Map<String, Long> timings) {
+        StringBuilder header = new StringBuilder();
+
+        for (Map.Entry<String, Long> timing : timings.entrySet()) {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+
+            header.append(timing.getKey()).append(";dur=")
+                    .append(Math.round(timing.getValue() / 1e5) / 10.0);
+        }
+
+        return header.toString();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stages = new TreeMap<String, Object>();
+
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            stages.put(timer.getKey(), timer.getValue().getStats());
+        }
+
+        Map<String, Object> values = new TreeMap<String, Object>();
+
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().get());
+        }
+
+        for (String name : gauges.keySet()) {
+            values.put(name, readGauge(name));
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("stages", stages);
+        stats.put("counters", values);
+
+        return stats;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        AtomicLong counter = counters.get(attribute);
+
+        if (counter != null) {
+            return counter.get();
+        }
+
+        if (gauges.containsKey(attribute)) {
+            return readGauge(attribute);
+        }
+
+        int dot = attribute.lastIndexOf('.');
+        Timer timer = dot > 0 ? timers.get(attribute.substring(0, dot)) : null;
+
+        if (timer == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        return timer.attribute(attribute.substring(dot + 1));
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skipped as the JMX contract requires
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Chart metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+        for (String stage : new TreeMap<String, Timer>(timers).keySet()) {
+            for (String name : TIMER_ATTRIBUTES) {
+                attributes.add(new MBeanAttributeInfo(stage + "." + name,
+                        name.equals("count") ? Long.class.getName() : Double.class.getName(),
+                        stage + " " + name, true, false, false));
+            }
+        }
+
+        for (String counter : new TreeMap<String, AtomicLong>(counters).keySet()) {
+            attributes.add(new MBeanAttributeInfo(counter, Long.class.getName(), counter, true, false, false));
+        }
+
+        for (String gauge : new TreeMap<String, Object>(gauges).keySet()) {
+            attributes.add(new MBeanAttributeInfo(gauge, Number.class.getName(), gauge, true, false, false));
+        }
+
+        return new MBeanInfo(getClass().getName(), "Console charts request pipeline metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), new MBeanConstructorInfo[0],
+                new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    private Number readGauge(String name) {
+        try {
+            return gauges.get(name).call();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}
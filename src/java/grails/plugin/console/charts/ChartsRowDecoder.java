@@ -0,0 +1,300 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts result set rows to chart values. Column labels and SQL types are resolved once per result set; the
+ * first column is always read as category string, other columns with a reader matching their SQL type.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsRowDecoder {
+
+    public enum ColumnReader {
+
+        STRING {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getString(column);
+            }
+        },
+
+        LONG {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                long value = rs.getLong(column);
+                return rs.wasNull() ? null : value;
+            }
+        },
+
+        /**
+         * Boolean column, read with getBoolean as 0 or 1 since drivers such as PostgreSQL reject getLong on it. See
+         * {@link #columnType} for columns reported as BIT.
+         */
+        BOOLEAN {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                boolean value = rs.getBoolean(column);
+                return rs.wasNull() ? null : (value ? 1L : 0L);
+            }
+        },
+
+        DOUBLE {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                double value = rs.getDouble(column);
+                return rs.wasNull() ? null : value;
+            }
+        },
+
+        DECIMAL {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getBigDecimal(column);
+            }
+        },
+
+        TIMESTAMP {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                Timestamp value = rs.getTimestamp(column);
+                return value != null ? TIMESTAMP_FORMAT.get().format(value) : null;
+            }
+        },
+
+        /**
+         * Character column in value position, converted to number when it holds one.
+         */
+        NUMERIC_STRING {
+            @Override
+            public Object read(ResultSet rs, int column) throws SQLException {
+                return toNumber(rs.getString(column));
+            }
+        };
+
+        public abstract Object read(ResultSet rs, int column) throws SQLException;
+
+    }
+
+    static final ThreadLocal<SimpleDateFormat> TIMESTAMP_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        }
+    };
+
+    private final int columnCount;
+    private final String[] labels;
+    private final ColumnReader[] readers;
+    private final int[] types;
+
+    public ChartsRowDecoder(ResultSetMetaData metaData) throws SQLException {
+        columnCount = metaData.getColumnCount();
+        labels = new String[columnCount];
+        readers = new ColumnReader[columnCount];
+        types = new int[columnCount];
+
+        for (int i = 0; i < columnCount; i++) {
+            String label = metaData.getColumnLabel(i + 1);
+            labels[i] = label != null && !label.isEmpty() ? label : metaData.getColumnName(i + 1);
+            types[i] = columnType(metaData, i + 1);
+            readers[i] = i == 0 ? ColumnReader.STRING : readerFor(types[i]);
+        }
+    }
+
+    /**
+     * Returns the SQL type of the column, BOOLEAN for BIT columns of a boolean type. PostgreSQL reports its booleans
+     * as BIT, while MySQL reports BIT and TINYINT(1) columns as BIT, which may hold other values than 0 and 1 and are
+     * read as numbers.
+     */
+    public static int columnType(ResultSetMetaData metaData, int column) throws SQLException {
+        int type = metaData.getColumnType(column);
+
+        if (type == Types.BIT) {
+            String name = metaData.getColumnTypeName(column);
+
+            if ("bool".equalsIgnoreCase(name) || "boolean".equalsIgnoreCase(name)) {
+                return Types.BOOLEAN;
+            }
+        }
+
+        return type;
+    }
+
+    public static ColumnReader readerFor(int sqlType) {
+        switch (sqlType) {
+            case Types.BOOLEAN:
+                return ColumnReader.BOOLEAN;
+            case Types.BIT:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return ColumnReader.LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return ColumnReader.DOUBLE;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return ColumnReader.DECIMAL;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return ColumnReader.TIMESTAMP;
+            default:
+                return ColumnReader.NUMERIC_STRING;
+        }
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public String[] getLabels() {
+        return labels;
+    }
+
+    public List<String> getColumns() {
+        List<String> columns = new ArrayList<String>(columnCount);
+
+        for (String label : labels) {
+            columns.add(label);
+        }
+
+        return columns;
+    }
+
+    public int getColumnType(int index) {
+        return types[index];
+    }
+
+    public boolean isTemporal(int index) {
+        return types[index] == Types.DATE || types[index] == Types.TIMESTAMP;
+    }
+
+    /**
+     * Returns true when the column holds date/time or numeric values, so rows can be thinned without losing
+     * categories.
+     */
+    public boolean isContinuous(int index) {
+        ColumnReader reader = readerFor(types[index]);
+        return reader != ColumnReader.STRING && reader != ColumnReader.NUMERIC_STRING;
+    }
+
+    public ColumnReader getReader(int index) {
+        return readers[index];
+    }
+
+    /**
+     * Reads value of the column with zero-based index from the current row.
+     */
+    public Object read(ResultSet rs, int index) throws SQLException {
+        return readers[index].read(rs, index + 1);
+    }
+
+    /**
+     * Reads the category of the current row as x for downsampling: milliseconds of date/time categories, value of
+     * numeric ones, NaN when null. The category itself is read as string, so its order can't be told from it.
+     */
+    public double readCategoryX(ResultSet rs) throws SQLException {
+        if (readerFor(types[0]) == ColumnReader.TIMESTAMP) {
+            Timestamp value = rs.getTimestamp(1);
+            return value != null ? value.getTime() : Double.NaN;
+        }
+
+        double value = rs.getDouble(1);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    public Map<String, Object> readMap(ResultSet rs) throws SQLException {
+        Map<String, Object> row = new LinkedHashMap<String, Object>(columnCount * 2);
+
+        for (int i = 0; i < columnCount; i++) {
+            row.put(labels[i], read(rs, i));
+        }
+
+        return row;
+    }
+
+    public Map<String, Object> toMap(List<Object> row) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>(columnCount * 2);
+
+        for (int i = 0; i < columnCount; i++) {
+            map.put(labels[i], row.get(i));
+        }
+
+        return map;
+    }
+
+    public List<Object> readList(ResultSet rs) throws SQLException {
+        List<Object> row = new ArrayList<Object>(columnCount);
+
+        for (int i = 0; i < columnCount; i++) {
+            row.add(read(rs, i));
+        }
+
+        return row;
+    }
+
+    /**
+     * Returns the string as Long or BigDecimal if it is a plain decimal number, otherwise the string itself.
+     */
+    static Object toNumber(String value) {
+        if (value == null || value.isEmpty() || value.length() > 40) {
+            return value;
+        }
+
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        boolean digits = false;
+        boolean point = false;
+
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return value;
+            }
+        }
+
+        if (!digits) {
+            return value;
+        }
+
+        if (!point && value.length() - start < 19) {
+            return Long.parseLong(value);
+        }
+
+        return new BigDecimal(value);
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * Hard limits of a single chart result: rows read, estimated size of the rows read and time since the query was
+ * started. When a limit is reached while more rows are available the result is truncated; its cursor is the number
+ * of rows to skip to read the next page. Limits of zero are disabled.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsRowLimit {
+
+    private final long maxRows;
+    private final long maxBytes;
+    private final long maxTime;
+    private final long offset;
+    private final long start = System.nanoTime();
+
+    private long rows;
+    private long bytes;
+    private boolean truncated;
+
+    public ChartsRowLimit(long maxRows, long maxBytes, long maxTime, long offset) {
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.maxTime = maxTime;
+        this.offset = Math.max(0, offset);
+    }
+
+    /**
+     * Returns the value for <code>Statement.setMaxRows</code>: rows of the previous pages, this page and one more
+     * row to tell whether the result is truncated, or zero without a row limit.
+     */
+    public int getStatementMaxRows() {
+        if (maxRows <= 0) {
+            return 0;
+        }
+
+        long statementRows = offset + maxRows + 1;
+
+        return statementRows > Integer.MAX_VALUE ? 0 : (int) statementRows;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Called for every row available after the offset. Returns false and marks the result truncated if the row is
+     * over a limit.
+     */
+    public boolean accept() {
+        if (truncated) {
+            return false;
+        }
+
+        if ((maxRows > 0 && rows >= maxRows) || (maxBytes > 0 && bytes >= maxBytes) ||
+                (maxTime > 0 && (System.nanoTime() - start) / 1000000 >= maxTime)) {
+            truncated = true;
+            return false;
+        }
+
+        rows++;
+
+        return true;
+    }
+
+    /**
+     * Adds estimated size as JSON of the current row of the result set to the bytes read, also for rows later
+     * downsampled.
+     */
+    public void add(ResultSet rs, int columnCount) throws SQLException {
+        if (maxBytes <= 0) {
+            return;
+        }
+
+        for (int i = 1; i <= columnCount; i++) {
+            bytes += size(rs.getObject(i)) + 1;
+        }
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the cursor of the next page, or null if the result is complete.
+     */
+    public String getCursor() {
+        return truncated ? Long.toString(offset + rows) : null;
+    }
+
+    static long size(Object value) {
+        if (value == null) {
+            return 4;
+        }
+
+        if (value instanceof CharSequence) {
+            return 2 + ((CharSequence) value).length();
+        }
+
+        if (value instanceof Date) {
+            return 21;
+        }
+
+        return value.toString().length();
+    }
+
+}
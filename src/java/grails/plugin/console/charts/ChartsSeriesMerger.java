@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import javax.sql.rowset.RowSetMetaDataImpl;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Merges results of several queries into one chart dataset by the category (first) column. Categories are sorted
+ * when all series have date/time or all have numeric categories, otherwise they keep the order they first appear
+ * in. Value columns of all series are placed side by side; repeated categories within a series are matched by
+ * position.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsSeriesMerger {
+
+    /**
+     * Rows of a single query with values normalized to the SQL type in {@link #types}.
+     */
+    public static class Series {
+
+        final String[] labels;
+        final int[] types;
+        final List<Object[]> rows = new ArrayList<Object[]>();
+
+        public Series(String[] labels, int[] types) {
+            this.labels = labels;
+            this.types = types;
+        }
+
+    }
+
+    private static class Category {
+
+        final Object value;
+        final List<Object[]> rows = new ArrayList<Object[]>(1);
+        final int[] used;
+
+        Category(Object value, int series) {
+            this.value = value;
+            this.used = new int[series];
+        }
+
+    }
+
+    private final List<Series> series;
+    private final int[] offsets;
+    private final int columnCount;
+    private final int categoryType;
+
+    public ChartsSeriesMerger(List<Series> series) {
+        this.series = series;
+        this.offsets = new int[series.size()];
+
+        int offset = 1;
+
+        for (int i = 0; i < series.size(); i++) {
+            offsets[i] = offset;
+            offset += series.get(i).labels.length - 1;
+        }
+
+        this.columnCount = offset;
+
+        int[] categoryTypes = new int[series.size()];
+
+        for (int i = 0; i < series.size(); i++) {
+            categoryTypes[i] = series.get(i).types[0];
+        }
+
+        this.categoryType = categoryType(categoryTypes);
+    }
+
+    /**
+     * Reads all rows of the result set. Value columns are read as the row decoder would read them, so merged rows
+     * decode to the same values as rows of a single query.
+     */
+    public static Series read(ResultSet rs) throws SQLException {
+        ChartsRowDecoder decoder = new ChartsRowDecoder(rs.getMetaData());
+
+        int count = decoder.getColumnCount();
+        int[] types = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            types[i] = storedType(decoder, i);
+        }
+
+        Series series = new Series(decoder.getLabels(), types);
+
+        while (rs.next()) {
+            Object[] row = new Object[count];
+
+            for (int i = 0; i < count; i++) {
+                row[i] = readValue(rs, i + 1, types[i]);
+            }
+
+            series.rows.add(row);
+        }
+
+        return series;
+    }
+
+    public ResultSetMetaData getMetaData() throws SQLException {
+        List<String[]> labels = new ArrayList<String[]>(series.size());
+        List<int[]> types = new ArrayList<int[]>(series.size());
+
+        for (Series current : series) {
+            labels.add(current.labels);
+            types.add(current.types);
+        }
+
+        return metaData(labels, types, categoryType);
+    }
+
+    /**
+     * Returns metadata of the merged columns: category of the first series followed by value columns of all
+     * series. Repeated labels get the number of their series appended.
+     */
+    static ResultSetMetaData metaData(List<String[]> labels, List<int[]> types, int categoryType)
+            throws SQLException {
+        int columnCount = 1;
+
+        for (String[] current : labels) {
+            columnCount += current.length - 1;
+        }
+
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(columnCount);
+
+        Set<String> used = new HashSet<String>();
+        int column = 1;
+
+        for (int s = 0; s < labels.size(); s++) {
+            String[] current = labels.get(s);
+
+            for (int i = s == 0 ? 0 : 1; i < current.length; i++) {
+                String label = current[i];
+
+                if (!used.add(label)) {
+                    label = label + " (" + (s + 1) + ")";
+                    used.add(label);
+                }
+
+                metaData.setColumnLabel(column, label);
+                metaData.setColumnName(column, label);
+                metaData.setColumnType(column, i == 0 ? categoryType : types.get(s)[i]);
+                metaData.setNullable(column, ResultSetMetaData.columnNullable);
+                column++;
+            }
+        }
+
+        return metaData;
+    }
+
+    public List<Object[]> getRows() {
+        boolean sorted = family(categoryType) != 0;
+
+        Map<Object, Category> categories = sorted ?
+                new TreeMap<Object, Category>() : new LinkedHashMap<Object, Category>();
+        List<Object[]> unmatched = new ArrayList<Object[]>();
+
+        for (int s = 0; s < series.size(); s++) {
+            Series current = series.get(s);
+            int width = current.labels.length - 1;
+
+            for (Object[] row : current.rows) {
+                Object value = convert(row[0], categoryType);
+                Object key = sorted ? sortKey(value) : value;
+
+                Object[] merged;
+
+                if (sorted && key == null) {
+                    merged = new Object[columnCount];
+                    merged[0] = value;
+                    unmatched.add(merged);
+                } else {
+                    Category category = categories.get(key);
+
+                    if (category == null) {
+                        category = new Category(value, series.size());
+                        categories.put(key, category);
+                    }
+
+                    int index = category.used[s]++;
+
+                    if (index < category.rows.size()) {
+                        merged = category.rows.get(index);
+                    } else {
+                        merged = new Object[columnCount];
+                        merged[0] = category.value;
+                        category.rows.add(merged);
+                    }
+                }
+
+                System.arraycopy(row, 1, merged, offsets[s], width);
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>(categories.size() + unmatched.size());
+
+        for (Category category : categories.values()) {
+            rows.addAll(category.rows);
+        }
+
+        rows.addAll(unmatched);
+
+        return rows;
+    }
+
+    /**
+     * Returns the SQL type values of the column are stored as: the type matching the decoder's reader for value
+     * columns, the original date/time or numeric type for the category. Boolean columns are read as BOOLEAN and
+     * stored as 0 or 1.
+     */
+    static int storedType(ChartsRowDecoder decoder, int index) {
+        int type = decoder.getColumnType(index);
+
+        switch (ChartsRowDecoder.readerFor(type)) {
+            case LONG:
+                return Types.BIGINT;
+            case BOOLEAN:
+                return Types.BOOLEAN;
+            case DOUBLE:
+                return Types.DOUBLE;
+            case DECIMAL:
+                return Types.DECIMAL;
+            case TIMESTAMP:
+                return index == 0 ? type : Types.TIMESTAMP;
+            default:
+                return Types.VARCHAR;
+        }
+    }
+
+    static Object readValue(ResultSet rs, int column, int type) throws SQLException {
+        Object value;
+
+        switch (type) {
+            case Types.BIGINT:
+                value = rs.getLong(column);
+                break;
+            case Types.BOOLEAN:
+                value = rs.getBoolean(column) ? 1L : 0L;
+                break;
+            case Types.DOUBLE:
+                value = rs.getDouble(column);
+                break;
+            case Types.DECIMAL:
+                value = rs.getBigDecimal(column);
+                break;
+            case Types.DATE:
+                value = rs.getDate(column);
+                break;
+            case Types.TIME:
+                value = rs.getTime(column);
+                break;
+            case Types.TIMESTAMP:
+                value = rs.getTimestamp(column);
+                break;
+            default:
+                value = rs.getString(column);
+        }
+
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * Returns common type of the category columns: their type if all are equal, TIMESTAMP for mixed dates and
+     * DECIMAL for mixed numbers, otherwise VARCHAR.
+     */
+    static int categoryType(int[] categoryTypes) {
+        int type = categoryTypes[0];
+
+        for (int other : categoryTypes) {
+            if (other == type) {
+                continue;
+            }
+
+            if (family(other) != family(type) || family(type) == 0) {
+                return Types.VARCHAR;
+            }
+
+            type = family(type) == Types.TIMESTAMP ? Types.TIMESTAMP : Types.DECIMAL;
+        }
+
+        return type;
+    }
+
+    /**
+     * Returns TIMESTAMP for date and timestamp types, DECIMAL for numeric types and 0 for types whose values are
+     * not sorted.
+     */
+    static int family(int type) {
+        switch (type) {
+            case Types.DATE:
+            case Types.TIMESTAMP:
+                return Types.TIMESTAMP;
+            case Types.BIGINT:
+            case Types.DOUBLE:
+            case Types.DECIMAL:
+                return Types.DECIMAL;
+            default:
+                return 0;
+        }
+    }
+
+    static Object convert(Object value, int type) {
+        if (value == null) {
+            return null;
+        }
+
+        switch (type) {
+            case Types.TIMESTAMP:
+                return value instanceof Timestamp ? value : new Timestamp(((java.util.Date) value).getTime());
+            case Types.DECIMAL:
+                return value instanceof BigDecimal ? value : sortKey(value);
+            case Types.VARCHAR:
+                return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+            default:
+                return value;
+        }
+    }
+
+    static Object sortKey(Object value) {
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        }
+
+        if (value instanceof Double) {
+            double number = (Double) value;
+            return Double.isNaN(number) || Double.isInfinite(number) ? null : BigDecimal.valueOf(number);
+        }
+
+        if (value instanceof Long) {
+            return BigDecimal.valueOf((Long) value);
+        }
+
+        return value;
+    }
+
+}
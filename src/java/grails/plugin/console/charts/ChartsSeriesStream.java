@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows of one series for the merge. A series is either read directly from its result set by the merging thread
+ * ({@link #open}), or handed over from the thread reading the result set ({@link #write}) in chunks through a
+ * bounded queue, so a fast query never holds more than a few chunks in memory. Waits of both sides end with the
+ * timeout of the stream or when it is closed; closing the stream makes the producer fail with
+ * {@link CancellationException}.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsSeriesStream {
+
+    static final int CHUNK_SIZE = 256;
+
+    private static final List<Object[]> END = new ArrayList<Object[]>(0);
+    private static final long POLL_INTERVAL = 100;
+
+    private final BlockingQueue<List<Object[]>> queue;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final long deadline;
+
+    private volatile String[] labels;
+    private volatile int[] types;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    private List<Object[]> chunk = new ArrayList<Object[]>(CHUNK_SIZE);
+
+    private ResultSet source;
+    private List<Object[]> current;
+    private int position;
+    private boolean finished;
+
+    /**
+     * Creates a stream holding at most the given number of chunks, or an unbounded one for 0.
+     */
+    public ChartsSeriesStream(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * Creates a stream whose waits fail after the timeout in milliseconds from now, 0 for no timeout.
+     */
+    public ChartsSeriesStream(int capacity, long timeout) {
+        queue = capacity > 0 ?
+                new ArrayBlockingQueue<List<Object[]>>(capacity) : new LinkedBlockingQueue<List<Object[]>>();
+        deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+    }
+
+    /**
+     * Reads rows directly from the result set on the thread calling {@link #next}. The result set has to stay open
+     * until the merge ends.
+     */
+    public void open(ResultSet rs) throws SQLException {
+        source = rs;
+        start(rs);
+    }
+
+    /**
+     * Reads all rows of the result set into the stream, values normalized as by {@link ChartsSeriesMerger#read}.
+     */
+    public void write(ResultSet rs) throws SQLException, InterruptedException {
+        start(rs);
+
+        Object[] row;
+
+        while ((row = read(rs)) != null) {
+            chunk.add(row);
+
+            if (chunk.size() == CHUNK_SIZE) {
+                put(chunk);
+                chunk = new ArrayList<Object[]>(CHUNK_SIZE);
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            put(chunk);
+        }
+
+        put(END);
+    }
+
+    /**
+     * Passes failure of the producer to the consumer.
+     */
+    public void fail(Throwable throwable) {
+        failure = throwable;
+        started.countDown();
+        queue.offer(END);
+    }
+
+    /**
+     * Waits until the producer has read the result set metadata.
+     */
+    public void awaitStart() throws SQLException {
+        try {
+            while (!started.await(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkWaiting();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for series", e);
+        }
+
+        if (labels == null) {
+            throw failure();
+        }
+    }
+
+    public String[] getLabels() {
+        return labels;
+    }
+
+    public int[] getTypes() {
+        return types;
+    }
+
+    /**
+     * Returns the next row or null after the last one.
+     */
+    public Object[] next() throws SQLException {
+        if (source != null) {
+            if (closed) {
+                throw new SQLException("Series stream was closed");
+            }
+
+            if (finished) {
+                return null;
+            }
+
+            Object[] row = read(source);
+            finished = row == null;
+            return row;
+        }
+
+        while (current == null || position >= current.size()) {
+            if (finished) {
+                return null;
+            }
+
+            List<Object[]> next;
+
+            try {
+                next = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while reading series", e);
+            }
+
+            if (next == END) {
+                if (failure != null) {
+                    throw failure();
+                }
+
+                finished = true;
+                return null;
+            }
+
+            if (next != null) {
+                current = next;
+                position = 0;
+            } else if (failure != null) {
+                throw failure();
+            } else {
+                checkWaiting();
+            }
+        }
+
+        return current.get(position++);
+    }
+
+    /**
+     * Reads all remaining rows into memory.
+     */
+    public ChartsSeriesMerger.Series drain() throws SQLException {
+        awaitStart();
+
+        ChartsSeriesMerger.Series series = new ChartsSeriesMerger.Series(labels, types);
+        Object[] row;
+
+        while ((row = next()) != null) {
+            series.rows.add(row);
+        }
+
+        return series;
+    }
+
+    /**
+     * Ends the stream, also from another thread: the producer fails on its next chunk, waits of the consumer fail.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * Returns true once the consumer has read the last row.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void start(ResultSet rs) throws SQLException {
+        ChartsRowDecoder decoder = new ChartsRowDecoder(rs.getMetaData());
+
+        int count = decoder.getColumnCount();
+        int[] columnTypes = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            columnTypes[i] = ChartsSeriesMerger.storedType(decoder, i);
+        }
+
+        labels = decoder.getLabels();
+        types = columnTypes;
+        started.countDown();
+    }
+
+    private Object[] read(ResultSet rs) throws SQLException {
+        if (!rs.next()) {
+            return null;
+        }
+
+        Object[] row = new Object[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            row[i] = ChartsSeriesMerger.readValue(rs, i + 1, types[i]);
+        }
+
+        return row;
+    }
+
+    private void put(List<Object[]> rows) throws SQLException, InterruptedException {
+        while (!queue.offer(rows, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                throw new CancellationException("Series stream was closed");
+            }
+
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                throw new SQLTimeoutException("Timed out waiting for the merge to read series");
+            }
+        }
+
+        if (closed) {
+            throw new CancellationException("Series stream was closed");
+        }
+    }
+
+    private void checkWaiting() throws SQLException {
+        if (closed) {
+            throw new SQLException("Series stream was closed");
+        }
+
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new SQLTimeoutException("Timed out waiting for series");
+        }
+    }
+
+    private SQLException failure() {
+        if (failure instanceof SQLException) {
+            return (SQLException) failure;
+        }
+
+        return new SQLException(failure != null ? failure.getMessage() : "Series failed", failure);
+    }
+
+}
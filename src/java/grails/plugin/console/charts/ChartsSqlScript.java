@@ -0,0 +1,463 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lexical helpers for SQL scripts. Quoted strings, quoted identifiers and comments are skipped, so semicolons and
+ * keywords inside them are ignored. What is quoted and commented depends on the {@link Dialect}, MySQL if none is
+ * given.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsSqlScript {
+
+    public enum Dialect {
+
+        /**
+         * Backslash escapes in strings, double-quoted strings, backtick-quoted identifiers, <code>#</code> and
+         * <code>-- </code> comments.
+         */
+        MYSQL('`', true, true, false),
+
+        /**
+         * Standard strings with backslash escapes only in <code>E'...'</code>, double-quoted identifiers,
+         * dollar-quoted strings (<code>$tag$...$tag$</code>) and <code>--</code> comments.
+         */
+        POSTGRESQL('"', false, false, true),
+
+        /**
+         * Standard strings and double-quoted identifiers, dollar-quoted strings as read by H2.
+         */
+        ANSI('"', false, false, true);
+
+        private final char identifierQuote;
+        private final boolean backslashEscapes;
+        private final boolean mysqlComments;
+        private final boolean dollarQuotes;
+
+        Dialect(char identifierQuote, boolean backslashEscapes, boolean mysqlComments, boolean dollarQuotes) {
+            this.identifierQuote = identifierQuote;
+            this.backslashEscapes = backslashEscapes;
+            this.mysqlComments = mysqlComments;
+            this.dollarQuotes = dollarQuotes;
+        }
+
+    }
+
+    private ChartsSqlScript() {
+    }
+
+    /**
+     * Splits the script on semicolons into trimmed statements. Statements holding only whitespace and comments
+     * are dropped.
+     */
+    public static List<String> split(String script) {
+        return split(script, Dialect.MYSQL);
+    }
+
+    public static List<String> split(String script, Dialect dialect) {
+        List<String> statements = new ArrayList<String>();
+
+        int length = script.length();
+        int start = 0;
+        boolean empty = true;
+        int i = 0;
+
+        while (i < length) {
+            char c = script.charAt(i);
+            int end = skip(script, i, dialect);
+
+            if (end > i) {
+                if (!isComment(script, i, dialect)) {
+                    empty = false;
+                }
+
+                i = end;
+            } else if (c == ';') {
+                if (!empty) {
+                    statements.add(script.substring(start, i).trim());
+                }
+
+                start = i + 1;
+                empty = true;
+                i++;
+            } else {
+                if (!Character.isWhitespace(c)) {
+                    empty = false;
+                }
+
+                i++;
+            }
+        }
+
+        if (!empty) {
+            statements.add(script.substring(start).trim());
+        }
+
+        return statements;
+    }
+
+    /**
+     * Returns lower-cased words of the statement outside strings and comments: keywords, names (with dots of
+     * qualified names kept, identifier quotes removed) and <code>@</code> variables.
+     */
+    public static List<String> tokens(String statement) {
+        return tokens(statement, Dialect.MYSQL);
+    }
+
+    public static List<String> tokens(String statement, Dialect dialect) {
+        char quote = dialect.identifierQuote;
+        String doubled = new String(new char[]{quote, quote});
+        List<String> tokens = new ArrayList<String>();
+
+        int length = statement.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = statement.charAt(i);
+
+            if (c == quote || isWordStart(c) && !isDollarQuote(statement, i, dialect)) {
+                StringBuilder word = new StringBuilder();
+
+                while (i < length) {
+                    c = statement.charAt(i);
+
+                    if (c == quote) {
+                        int end = skip(statement, i, dialect);
+                        word.append(statement, i + 1, Math.max(i + 1, end - 1));
+                        i = end;
+                    } else if (isWordPart(c) || (c == '.' && word.length() > 0)) {
+                        word.append(c);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+
+                tokens.add(word.toString().replace(doubled, String.valueOf(quote)).toLowerCase(Locale.ENGLISH));
+                continue;
+            }
+
+            int end = skip(statement, i, dialect);
+            i = end > i ? end : i + 1;
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Replaces named parameters (<code>:name</code>) outside strings and comments with JDBC placeholders, adding
+     * their names to the list in order of appearance. MySQL assignments (<code>:=</code>) are left alone.
+     */
+    public static String toPositional(String statement, List<String> names) {
+        return toPositional(statement, names, Dialect.MYSQL);
+    }
+
+    public static String toPositional(String statement, List<String> names, Dialect dialect) {
+        StringBuilder sql = new StringBuilder(statement.length());
+
+        int length = statement.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = statement.charAt(i);
+            int end = skip(statement, i, dialect);
+
+            if (end > i) {
+                sql.append(statement, i, end);
+                i = end;
+            } else if (c == ':' && i + 1 < length && isNameStart(statement.charAt(i + 1)) &&
+                    (i == 0 || statement.charAt(i - 1) != ':')) {
+                int j = i + 1;
+
+                while (j < length && isNamePart(statement.charAt(j))) {
+                    j++;
+                }
+
+                names.add(statement.substring(i + 1, j));
+                sql.append('?');
+                i = j;
+            } else {
+                sql.append(c);
+                i++;
+            }
+        }
+
+        return sql.toString();
+    }
+
+    /**
+     * Returns names of the named parameters used by the statement.
+     */
+    public static List<String> parameters(String statement) {
+        return parameters(statement, Dialect.MYSQL);
+    }
+
+    public static List<String> parameters(String statement, Dialect dialect) {
+        List<String> names = new ArrayList<String>();
+        toPositional(statement, names, dialect);
+        return names;
+    }
+
+    /**
+     * Returns the script reduced to its shape: comments dropped, string and numeric literals replaced with
+     * <code>?</code>, whitespace collapsed and words lower-cased. Scripts differing only in literal values have the
+     * same shape.
+     */
+    public static String normalize(String script) {
+        return normalize(script, Dialect.MYSQL);
+    }
+
+    public static String normalize(String script, Dialect dialect) {
+        StringBuilder shape = new StringBuilder(script.length());
+
+        int length = script.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = script.charAt(i);
+            int end = skip(script, i, dialect);
+
+            if (end > i) {
+                if (isComment(script, i, dialect)) {
+                    c = ' ';
+                } else if (c == dialect.identifierQuote) {
+                    shape.append(script, i, end);
+                    i = end;
+                    continue;
+                } else {
+                    c = '?';
+                }
+
+                i = end;
+            } else if (Character.isDigit(c) && (shape.length() == 0 || !isWordPart(shape.charAt(shape.length() - 1)))) {
+                while (i < length && (Character.isLetterOrDigit(script.charAt(i)) || script.charAt(i) == '.')) {
+                    i++;
+                }
+
+                c = '?';
+            } else {
+                i++;
+            }
+
+            if (Character.isWhitespace(c)) {
+                if (shape.length() > 0 && shape.charAt(shape.length() - 1) != ' ') {
+                    shape.append(' ');
+                }
+            } else {
+                shape.append(Character.toLowerCase(c));
+            }
+        }
+
+        return shape.toString().trim();
+    }
+
+    /**
+     * Returns true if the statement is a query which only reads data: a <code>SELECT</code> (or <code>WITH</code>)
+     * statement without <code>INTO</code>.
+     */
+    public static boolean isSelect(String statement) {
+        return isSelect(statement, Dialect.MYSQL);
+    }
+
+    public static boolean isSelect(String statement, Dialect dialect) {
+        List<String> tokens = tokens(statement, dialect);
+
+        if (tokens.isEmpty()) {
+            return false;
+        }
+
+        String first = tokens.get(0);
+
+        return (first.equals("select") || first.equals("with")) && !tokens.contains("into");
+    }
+
+    /**
+     * Returns true if the statement has an <code>ORDER BY</code> clause outside parentheses, which orders its rows.
+     */
+    public static boolean hasOrderBy(String statement, Dialect dialect) {
+        int length = statement.length();
+        int depth = 0;
+        boolean order = false;
+        int i = 0;
+
+        while (i < length) {
+            char c = statement.charAt(i);
+            int end = skip(statement, i, dialect);
+
+            if (end > i) {
+                i = end;
+                continue;
+            }
+
+            if (isWordStart(c) && (i == 0 || !isWordPart(statement.charAt(i - 1)))) {
+                int j = i;
+
+                while (j < length && isWordPart(statement.charAt(j))) {
+                    j++;
+                }
+
+                String word = statement.substring(i, j);
+
+                if (depth == 0 && order && word.equalsIgnoreCase("by")) {
+                    return true;
+                }
+
+                order = depth == 0 && word.equalsIgnoreCase("order");
+                i = j;
+                continue;
+            }
+
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+
+            if (!Character.isWhitespace(c)) {
+                order = false;
+            }
+
+            i++;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns index after the quoted string, quoted identifier or comment starting at the index, or the index
+     * itself if there is none.
+     */
+    private static int skip(String script, int i, Dialect dialect) {
+        int length = script.length();
+        char c = script.charAt(i);
+
+        if (c == '\'' || c == '"' || c == dialect.identifierQuote) {
+            boolean escapes = c != dialect.identifierQuote && (dialect.backslashEscapes || isEscapeString(script, i));
+            int j = i + 1;
+
+            while (j < length) {
+                char d = script.charAt(j);
+
+                if (d == '\\' && escapes) {
+                    j += 2;
+                } else if (d == c) {
+                    if (j + 1 < length && script.charAt(j + 1) == c) {
+                        j += 2;
+                    } else {
+                        return j + 1;
+                    }
+                } else {
+                    j++;
+                }
+            }
+
+            return length;
+        }
+
+        if (isDollarQuote(script, i, dialect)) {
+            String tag = script.substring(i, script.indexOf('$', i + 1) + 1);
+            int end = script.indexOf(tag, i + tag.length());
+            return end < 0 ? length : end + tag.length();
+        }
+
+        if (isComment(script, i, dialect)) {
+            if (c == '/') {
+                int end = script.indexOf("*/", i + 2);
+                return end < 0 ? length : end + 2;
+            }
+
+            int end = script.indexOf('\n', i);
+            return end < 0 ? length : end + 1;
+        }
+
+        return i;
+    }
+
+    private static boolean isComment(String script, int i, Dialect dialect) {
+        int length = script.length();
+        char c = script.charAt(i);
+
+        if (c == '#') {
+            return dialect.mysqlComments;
+        }
+
+        if (c == '/' && i + 1 < length && script.charAt(i + 1) == '*') {
+            return true;
+        }
+
+        // MySQL needs whitespace after the dashes, so that 1--1 is a subtraction
+        return c == '-' && i + 1 < length && script.charAt(i + 1) == '-' &&
+                (!dialect.mysqlComments || i + 2 == length || Character.isWhitespace(script.charAt(i + 2)));
+    }
+
+    /**
+     * Returns true for PostgreSQL string constant with C-style escapes, <code>E'...'</code>.
+     */
+    private static boolean isEscapeString(String script, int i) {
+        if (script.charAt(i) != '\'' || i == 0) {
+            return false;
+        }
+
+        char prefix = script.charAt(i - 1);
+
+        return (prefix == 'E' || prefix == 'e') && (i == 1 || !isWordPart(script.charAt(i - 2)));
+    }
+
+    /**
+     * Returns true if a dollar quote tag (<code>$$</code> or <code>$tag$</code>) starts at the index. Positional
+     * parameters like <code>$1</code> and dollar signs inside names are not tags.
+     */
+    private static boolean isDollarQuote(String script, int i, Dialect dialect) {
+        if (!dialect.dollarQuotes || script.charAt(i) != '$' || i > 0 && isWordPart(script.charAt(i - 1))) {
+            return false;
+        }
+
+        int length = script.length();
+        int j = i + 1;
+
+        if (j < length && Character.isDigit(script.charAt(j))) {
+            return false;
+        }
+
+        while (j < length && isNamePart(script.charAt(j))) {
+            j++;
+        }
+
+        return j < length && script.charAt(j) == '$';
+    }
+
+    private static boolean isNameStart(char c) {
+        return c == '_' || Character.isLetter(c);
+    }
+
+    private static boolean isNamePart(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isWordStart(char c) {
+        return c == '@' || c == '_' || c == '$' || Character.isLetter(c);
+    }
+
+    private static boolean isWordPart(char c) {
+        return c == '@' || c == '_' || c == '$' || Character.isLetterOrDigit(c);
+    }
+
+}
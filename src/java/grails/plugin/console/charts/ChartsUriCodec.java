@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Java implementation of JavaScript <code>escape</code>, <code>unescape</code>, <code>encodeURIComponent</code> and
+ * <code>decodeURIComponent</code> with the same output as the browser functions used by the GWT client.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+public class ChartsUriCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final String ESCAPE_SAFE =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789@*_+-./";
+    private static final String URI_COMPONENT_SAFE =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.!~*'()";
+
+    private static final boolean[] ESCAPE_SAFE_CHARS = table(ESCAPE_SAFE);
+    private static final boolean[] URI_COMPONENT_SAFE_CHARS = table(URI_COMPONENT_SAFE);
+
+    private ChartsUriCodec() {
+    }
+
+    public static String escape(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c < 128 && ESCAPE_SAFE_CHARS[c]) {
+                sb.append(c);
+            } else if (c < 256) {
+                sb.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            } else {
+                sb.append("%u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                        .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    public static String unescape(String value) {
+        if (value == null || value.indexOf('%') < 0) {
+            return value;
+        }
+
+        int length = value.length();
+        StringBuilder sb = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c == '%') {
+                if (i + 6 <= length && value.charAt(i + 1) == 'u') {
+                    int code = hex(value, i + 2, 4);
+
+                    if (code >= 0) {
+                        sb.append((char) code);
+                        i += 5;
+                        continue;
+                    }
+                }
+
+                if (i + 3 <= length) {
+                    int code = hex(value, i + 1, 2);
+
+                    if (code >= 0) {
+                        sb.append((char) code);
+                        i += 2;
+                        continue;
+                    }
+                }
+            }
+
+            sb.append(c);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value contains unpaired surrogate, like URIError in JavaScript
+     */
+    public static String encodeURIComponent(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c < 128 && URI_COMPONENT_SAFE_CHARS[c]) {
+                sb.append(c);
+                continue;
+            }
+
+            int codePoint = c;
+
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 >= value.length() || !Character.isLowSurrogate(value.charAt(i + 1))) {
+                    throw new IllegalArgumentException("URI malformed");
+                }
+
+                codePoint = Character.toCodePoint(c, value.charAt(++i));
+            } else if (Character.isLowSurrogate(c)) {
+                throw new IllegalArgumentException("URI malformed");
+            }
+
+            if (codePoint < 0x80) {
+                percent(sb, codePoint);
+            } else if (codePoint < 0x800) {
+                percent(sb, 0xC0 | (codePoint >> 6));
+                percent(sb, 0x80 | (codePoint & 0x3F));
+            } else if (codePoint < 0x10000) {
+                percent(sb, 0xE0 | (codePoint >> 12));
+                percent(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+                percent(sb, 0x80 | (codePoint & 0x3F));
+            } else {
+                percent(sb, 0xF0 | (codePoint >> 18));
+                percent(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+                percent(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+                percent(sb, 0x80 | (codePoint & 0x3F));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException on malformed escape sequence or invalid UTF-8, like URIError in JavaScript
+     */
+    public static String decodeURIComponent(String value) {
+        if (value == null || value.indexOf('%') < 0) {
+            return value;
+        }
+
+        int length = value.length();
+        StringBuilder sb = new StringBuilder(length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        for (int i = 0; i < length; ) {
+            char c = value.charAt(i);
+
+            if (c != '%') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+
+            bytes.reset();
+
+            while (i < length && value.charAt(i) == '%') {
+                int b = i + 3 <= length ? hex(value, i + 1, 2) : -1;
+
+                if (b < 0) {
+                    throw new IllegalArgumentException("URI malformed");
+                }
+
+                bytes.write(b);
+                i += 3;
+            }
+
+            sb.append(decodeUtf8(bytes.toByteArray()));
+        }
+
+        return sb.toString();
+    }
+
+    private static String decodeUtf8(byte[] bytes) {
+        try {
+            return UTF8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("URI malformed", e);
+        }
+    }
+
+    private static void percent(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static int hex(String value, int offset, int length) {
+        int result = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            char c = value.charAt(i);
+            int digit;
+
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+
+            result = (result << 4) | digit;
+        }
+
+        return result;
+    }
+
+    private static boolean[] table(String chars) {
+        boolean[] table = new boolean[128];
+
+        for (int i = 0; i < chars.length(); i++) {
+            table[chars.charAt(i)] = true;
+        }
+
+        return table;
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.sql.rowset.RowSetMetaDataImpl
+import java.sql.ResultSet
+import java.sql.Timestamp
+import java.sql.Types
+import java.text.SimpleDateFormat
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsAggregatorSpec extends Specification {
+
+    private static final long MINUTE = 60000L
+
+    TimeZone defaultTimeZone = TimeZone.default
+
+    def cleanup() {
+        TimeZone.default = defaultTimeZone
+    }
+
+    def "aggregates unordered rows into more buckets than the initial table holds"() {
+        given:
+        TimeZone.default = TimeZone.getTimeZone('UTC')
+        long start = 1399999980000L
+        List<Object[]> rows = []
+
+        2.times { int pass ->
+            List<Integer> minutes = (0..<1000).toList()
+            Collections.shuffle(minutes, new Random(42 + pass))
+
+            minutes.each { int i ->
+                rows << ([new Timestamp(start + i * MINUTE + pass * 1000), i as Long, pass as Long,
+                          pass == 0 ? 'x' : null] as Object[])
+            }
+        }
+
+        rows << ([null, 1L, 1L, 'x'] as Object[])
+
+        ChartsAggregator aggregator = ChartsAggregator.parse('minute,m:max')
+
+        when:
+        aggregator.aggregate(resultSet(rows))
+        List<List> buckets = readAll(aggregator)
+
+        then:
+        aggregator.buckets == 1000
+        aggregator.rows == 2000
+        buckets.size() == 1000
+        buckets.eachWithIndex { List bucket, int i ->
+            assert bucket == [new Timestamp(start + i * MINUTE), 2d * i, 1d, 1L]
+        }
+        (1..4).collect { aggregator.metaData.getColumnType(it) } ==
+                [Types.TIMESTAMP, Types.DOUBLE, Types.DOUBLE, Types.BIGINT]
+    }
+
+    @Unroll
+    def "aligns #width bucket of #time to local time #expected across daylight saving time changes"() {
+        given:
+        TimeZone.default = TimeZone.getTimeZone('Europe/Berlin')
+        ChartsAggregator aggregator = ChartsAggregator.parse(width)
+
+        expect:
+        aggregator.bucketStart(utc(time)) == utc(expected)
+
+        where:
+        width  | time                | expected
+        'day'  | '2014-03-30 10:00Z' | '2014-03-29 23:00Z'
+        'day'  | '2014-03-30 22:30Z' | '2014-03-30 22:00Z'
+        'day'  | '2014-10-26 11:00Z' | '2014-10-25 22:00Z'
+        'day'  | '2014-10-26 23:30Z' | '2014-10-26 23:00Z'
+        'hour' | '2014-03-30 01:30Z' | '2014-03-30 01:00Z'
+        'hour' | '2014-10-26 00:30Z' | '2014-10-26 00:00Z'
+        'hour' | '2014-10-26 01:30Z' | '2014-10-26 01:00Z'
+    }
+
+    private static long utc(String time) {
+        SimpleDateFormat format = new SimpleDateFormat('yyyy-MM-dd HH:mmX')
+        format.parse(time).time
+    }
+
+    private static List<List> readAll(ChartsAggregator aggregator) {
+        List<List> rows = []
+
+        for (Object[] row = aggregator.next(); row != null; row = aggregator.next()) {
+            rows << row.toList()
+        }
+
+        rows
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl()
+        metaData.columnCount = 4
+        metaData.setColumnLabel(1, 'time')
+        metaData.setColumnType(1, Types.TIMESTAMP)
+        metaData.setColumnLabel(2, 'n')
+        metaData.setColumnType(2, Types.BIGINT)
+        metaData.setColumnLabel(3, 'm')
+        metaData.setColumnType(3, Types.BIGINT)
+        metaData.setColumnLabel(4, 'label')
+        metaData.setColumnType(4, Types.VARCHAR)
+
+        Iterator<Object[]> iterator = rows.iterator()
+
+        new MergedResultSet(metaData, { iterator.hasNext() ? iterator.next() : null })
+    }
+
+}
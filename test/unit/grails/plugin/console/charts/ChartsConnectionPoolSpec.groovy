@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.util.concurrent.BlockingVariable
+
+import java.sql.Connection
+import java.sql.SQLException
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Timeout(10)
+class ChartsConnectionPoolSpec extends Specification {
+
+    ChartsConnectionPool pool = new ChartsConnectionPool(maxPerKey: 2, maxTotal: 3, borrowTimeout: 5000)
+    Queue<Connection> connections = new ConcurrentLinkedQueue<Connection>()
+    List<Connection> closed = [].asSynchronized()
+    Closure<Connection> factory = { connections.poll() }
+
+    def setup() {
+        pool.closeListener = { Connection connection -> closed << connection }
+    }
+
+    def "reuses released connections of the same key"() {
+        given:
+        Connection connection = connection()
+
+        when:
+        Connection first = pool.borrow('a', factory)
+        pool.release(first)
+        Connection second = pool.borrow('a', factory)
+
+        then:
+        first.is(connection)
+        second.is(connection)
+        pool.stats == [total: 1, borrowed: 1, idle: 0, keys: 1]
+    }
+
+    def "waits for a connection released by another thread when the key has no more"() {
+        given:
+        2.times { connection() }
+        Connection first = pool.borrow('a', factory)
+        pool.borrow('a', factory)
+        BlockingVariable<Connection> borrowed = new BlockingVariable<Connection>(5)
+
+        when:
+        Thread.start { borrowed.set(pool.borrow('a', factory)) }
+        Thread.sleep(200)
+        pool.release(first)
+
+        then:
+        borrowed.get().is(first)
+        pool.stats.total == 2
+    }
+
+    def "fails after the borrow timeout when the key has no more connections"() {
+        given:
+        pool.borrowTimeout = 100
+        3.times { connection() }
+        2.times { pool.borrow('a', factory) }
+
+        when:
+        pool.borrow('a', factory)
+
+        then:
+        thrown(SQLException)
+        connections.size() == 1
+    }
+
+    def "tryBorrow returns null instead of waiting"() {
+        given:
+        3.times { connection() }
+        2.times { pool.borrow('a', factory) }
+
+        expect:
+        pool.tryBorrow('a', factory) == null
+        pool.tryBorrow('b', factory) != null
+    }
+
+    def "discards connections closed while borrowed and notifies the close listener"() {
+        given:
+        Connection connection = connection(true)
+        pool.borrow('a', factory)
+
+        when:
+        pool.release(connection)
+
+        then:
+        closed == [connection]
+        pool.stats.total == 0
+    }
+
+    def "discards idle connections failing validation"() {
+        given:
+        Connection broken = Stub(Connection) {
+            isValid(_) >> false
+            getAutoCommit() >> true
+        }
+        connections << broken
+        pool.release(pool.borrow('a', factory))
+        Connection next = connection()
+
+        when:
+        Connection borrowed = pool.borrow('a', factory)
+
+        then:
+        borrowed.is(next)
+        closed == [broken]
+        pool.stats.total == 1
+    }
+
+    def "evicts the least recently used idle connection of another key when the total is reached"() {
+        given:
+        4.times { connection() }
+        Connection oldest = pool.borrow('a', factory)
+        Connection newer = pool.borrow('b', factory)
+        pool.borrow('c', factory)
+        pool.release(oldest)
+        Thread.sleep(10)
+        pool.release(newer)
+
+        when:
+        Connection borrowed = pool.borrow('d', factory)
+
+        then:
+        borrowed != null
+        closed == [oldest]
+        pool.stats == [total: 3, borrowed: 2, idle: 1, keys: 3]
+    }
+
+    def "closes evicted connections outside of the pool lock"() {
+        given:
+        CountDownLatch closing = new CountDownLatch(1)
+        CountDownLatch proceed = new CountDownLatch(1)
+        Connection slow = Stub(Connection) {
+            isValid(_) >> true
+            getAutoCommit() >> true
+            close() >> {
+                closing.countDown()
+                proceed.await()
+            }
+        }
+        pool.maxTotal = 1
+        connections << slow
+        pool.release(pool.borrow('a', factory))
+        connection()
+        BlockingVariable<Connection> borrowed = new BlockingVariable<Connection>(5)
+        BlockingVariable<Map> stats = new BlockingVariable<Map>(2)
+
+        when:
+        Thread.start { borrowed.set(pool.borrow('b', factory)) }
+        closing.await()
+        Thread.start { stats.set(pool.stats) }
+
+        then:
+        stats.get() == [total: 1, borrowed: 0, idle: 0, keys: 1]
+
+        when:
+        proceed.countDown()
+
+        then:
+        borrowed.get() != null
+        closed == [slow]
+    }
+
+    private Connection connection(boolean isClosed = false) {
+        Connection connection = Stub(Connection) {
+            isValid(_) >> true
+            isClosed() >> isClosed
+            getAutoCommit() >> true
+        }
+        connections << connection
+        connection
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.sql.rowset.RowSetMetaDataImpl
+import java.sql.ResultSet
+import java.sql.Timestamp
+import java.sql.Types
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsDownsamplerSpec extends Specification {
+
+    static final long DAY = 24 * 60 * 60 * 1000L
+    static final long JAN_1 = new GregorianCalendar(2014, Calendar.JANUARY, 1).timeInMillis
+
+    @Unroll
+    def "keeps the spike of a series with #name category read as string"() {
+        given:
+        ResultSet rs = resultSet(type, (0..<10).collect { [category(it), it == 6 ? 100L : 1L] as Object[] })
+        ChartsRowDecoder decoder = new ChartsRowDecoder(rs.metaData)
+        ChartsDownsampler downsampler = new ChartsDownsampler(3)
+
+        when:
+        while (rs.next()) {
+            double x = decoder.readCategoryX(rs)
+            downsampler.add(x, decoder.readList(rs))
+        }
+
+        then:
+        decoder.getReader(0) == ChartsRowDecoder.ColumnReader.STRING
+        downsampler.rows*.get(1) == [1L, 100L, 1L]
+        downsampler.rows[1][0] == spike
+
+        where:
+        name        | type            | category                                    | spike
+        'timestamp' | Types.TIMESTAMP | { int i -> new Timestamp(JAN_1 + i * DAY) } | formatted(JAN_1 + 6 * DAY)
+        'integer'   | Types.INTEGER   | { int i -> (i * 10) as Long }               | '60'
+    }
+
+    def "keeps x of the previous row for rows without category"() {
+        given:
+        ChartsDownsampler downsampler = new ChartsDownsampler(3)
+
+        when:
+        (0..<10).each { downsampler.add(it == 6 ? Double.NaN : it as double, ['c' + it, it == 6 ? 100L : 1L]) }
+
+        then:
+        downsampler.count == 10
+        downsampler.rows*.get(0) == ['c0', 'c6', 'c9']
+    }
+
+    def "takes x from date categories of rows added without x"() {
+        given:
+        ChartsDownsampler downsampler = new ChartsDownsampler(3)
+
+        when:
+        (0..<10).each { downsampler.add([new Date(it * DAY), it == 3 ? -50L : 1L]) }
+
+        then:
+        downsampler.rows*.get(1) == [1L, -50L, 1L]
+    }
+
+    def "returns all rows up to the threshold"() {
+        given:
+        ChartsDownsampler downsampler = new ChartsDownsampler(20)
+
+        when:
+        (0..<15).each { downsampler.add(it as double, [it, it * 2]) }
+
+        then:
+        downsampler.rows*.get(0) == (0..<15).toList()
+    }
+
+    def "keeps about threshold rows with first and last of a long series"() {
+        given:
+        ChartsDownsampler downsampler = new ChartsDownsampler(100)
+
+        when:
+        (0..<100000).each { downsampler.add(it as double, [it, Math.sin(it / 1000d)]) }
+
+        then:
+        downsampler.count == 100000
+        downsampler.rows.size() == 100
+        downsampler.rows.first()[0] == 0
+        downsampler.rows.last()[0] == 99999
+        downsampler.rows*.get(0) == downsampler.rows*.get(0).sort(false)
+    }
+
+    private static ResultSet resultSet(int categoryType, List<Object[]> rows) {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl()
+        metaData.columnCount = 2
+        metaData.setColumnLabel(1, 'category')
+        metaData.setColumnType(1, categoryType)
+        metaData.setColumnLabel(2, 'value')
+        metaData.setColumnType(2, Types.BIGINT)
+
+        Iterator<Object[]> iterator = rows.iterator()
+
+        new MergedResultSet(metaData, { iterator.hasNext() ? iterator.next() : null })
+    }
+
+    private static String formatted(long time) {
+        ChartsRowDecoder.TIMESTAMP_FORMAT.get().format(new Timestamp(time))
+    }
+
+}
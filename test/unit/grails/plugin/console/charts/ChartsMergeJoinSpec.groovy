@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.sql.rowset.RowSetMetaDataImpl
+import java.sql.Date
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+import java.sql.SQLException
+import java.sql.Timestamp
+import java.sql.Types
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsMergeJoinSpec extends Specification {
+
+    private static final long DAY = 86400000L
+
+    @Unroll
+    def "merge join and merger outer join series with #kind categories"() {
+        when:
+        List<List> joined = join(first, second)
+        List<List> merged = merge(first, second)
+
+        then:
+        joined == rows
+        merged == rows
+
+        where:
+        kind << ['BIGINT', 'DATE and TIMESTAMP', 'BIGINT and DOUBLE']
+        first << [
+                series(Types.BIGINT, [[1L, 1L], [2L, 2L], [4L, 4L]]),
+                series(Types.DATE, [[new Date(0), 1L], [new Date(DAY), 2L]]),
+                series(Types.BIGINT, [[1L, 1L], [2L, 2L]])
+        ]
+        second << [
+                series(Types.BIGINT, [[2L, 20L], [3L, 30L], [4L, 40L]]),
+                series(Types.TIMESTAMP, [[new Timestamp(DAY), 20L]]),
+                series(Types.DOUBLE, [[1.0d, 10L], [1.5d, 15L]])
+        ]
+        rows << [
+                [[1L, 1L, null], [2L, 2L, 20L], [3L, null, 30L], [4L, 4L, 40L]],
+                [[new Timestamp(0), 1L, null], [new Timestamp(DAY), 2L, 20L]],
+                [[1G, 1L, 10L], [1.5G, null, 15L], [2G, 2L, null]]
+        ]
+    }
+
+    def "numbers repeated labels of the merged columns"() {
+        given:
+        ChartsMergeJoin join = new ChartsMergeJoin([
+                stream(series(Types.BIGINT, [])), stream(series(Types.BIGINT, []))
+        ])
+
+        when:
+        ResultSetMetaData metaData = join.metaData
+
+        then:
+        metaData.columnCount == 3
+        (1..3).collect { metaData.getColumnLabel(it) } == ['category', 'value', 'value (2)']
+        join.sortable
+    }
+
+    def "reads series streamed directly from their result sets"() {
+        given:
+        ChartsSeriesStream first = new ChartsSeriesStream(0)
+        first.open(series(Types.BIGINT, [[1L, 1L], [3L, 3L]]))
+
+        when:
+        List<List> rows = readAll(new ChartsMergeJoin([first, stream(series(Types.BIGINT, [[2L, 20L]]))]))
+
+        then:
+        rows == [[1L, 1L, null], [2L, null, 20L], [3L, 3L, null]]
+        first.finished
+    }
+
+    def "returns rows with a null category as they come"() {
+        given:
+        ResultSet first = series(Types.BIGINT, [[null, 5L], [1L, 6L]])
+        ResultSet second = series(Types.BIGINT, [[1L, 7L]])
+
+        expect:
+        readAll(new ChartsMergeJoin([stream(first), stream(second)])) == [[null, 5L, null], [1L, 6L, 7L]]
+    }
+
+    def "fails when a series is not ordered by its category"() {
+        given:
+        ChartsMergeJoin join = new ChartsMergeJoin([
+                stream(series(Types.BIGINT, [[2L, 2L], [1L, 1L]])), stream(series(Types.BIGINT, [[1L, 10L]]))
+        ])
+
+        when:
+        readAll(join)
+
+        then:
+        SQLException e = thrown()
+        e.message == 'Series 1 is not ordered by its category column'
+    }
+
+    def "passes failure of a series to the merge"() {
+        given:
+        ChartsSeriesStream failed = new ChartsSeriesStream(0)
+        failed.fail(new SQLException('Table not found'))
+
+        when:
+        new ChartsMergeJoin([stream(series(Types.BIGINT, [[1L, 1L]])), failed])
+
+        then:
+        SQLException e = thrown()
+        e.message == 'Table not found'
+    }
+
+    def "merger keeps order of categories which can't be compared and pairs repeated ones"() {
+        given:
+        ResultSet first = series(Types.VARCHAR, [['b', 1L], ['a', 2L], ['b', 3L]])
+        ResultSet second = series(Types.VARCHAR, [['a', 10L], ['b', 20L]])
+
+        expect:
+        merge(first, second) == [['b', 1L, 20L], ['b', 3L, null], ['a', 2L, 10L]]
+    }
+
+    def "merger puts rows with a category that can't be sorted last"() {
+        given:
+        ResultSet first = series(Types.DOUBLE, [[Double.NaN, 5L], [1.0d, 6L]])
+        ResultSet second = series(Types.DOUBLE, [[1.0d, 7L]])
+
+        when:
+        List<List> rows = merge(first, second)
+
+        then:
+        rows[0] == [1.0d, 6L, 7L]
+        rows[1][0].isNaN()
+        rows[1][1..2] == [5L, null]
+    }
+
+    private static List<List> join(ResultSet first, ResultSet second) {
+        ChartsMergeJoin join = new ChartsMergeJoin([stream(first), stream(second)])
+        assert join.sortable
+        readAll(join)
+    }
+
+    private static List<List> merge(ResultSet first, ResultSet second) {
+        // the merge join reads the result sets first
+        first.beforeFirst()
+        second.beforeFirst()
+
+        new ChartsSeriesMerger([ChartsSeriesMerger.read(first), ChartsSeriesMerger.read(second)]).rows*.toList()
+    }
+
+    private static List<List> readAll(ChartsMergeJoin join) {
+        List<List> rows = []
+
+        for (Object[] row = join.next(); row != null; row = join.next()) {
+            rows << row.toList()
+        }
+
+        join.close()
+        rows
+    }
+
+    private static ChartsSeriesStream stream(ResultSet rs) {
+        ChartsSeriesStream stream = new ChartsSeriesStream(0)
+        stream.write(rs)
+        stream
+    }
+
+    private static ResultSet series(int categoryType, List<List> rows) {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl()
+        metaData.columnCount = 2
+        metaData.setColumnLabel(1, 'category')
+        metaData.setColumnType(1, categoryType)
+        metaData.setColumnLabel(2, 'value')
+        metaData.setColumnType(2, Types.BIGINT)
+
+        Iterator<List> iterator = rows.iterator()
+
+        MergedResultSet.scrollable(metaData, { iterator.hasNext() ? iterator.next() as Object[] : null })
+    }
+
+}
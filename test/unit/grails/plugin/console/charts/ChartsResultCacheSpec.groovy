@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.util.concurrent.BlockingVariable
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@Timeout(10)
+class ChartsResultCacheSpec extends Specification {
+
+    // estimated size of [v: 'x'] is 164 bytes, two of them fit
+    ChartsResultCache cache = new ChartsResultCache(maxBytes: 400)
+
+    def "returns cached value until it expires"() {
+        given:
+        AtomicInteger loads = new AtomicInteger()
+        Closure<Map> loader = { [v: loads.incrementAndGet() as String] }
+
+        when:
+        Map first = cache.get('a', 100, loader)
+        Map second = cache.get('a', 100, loader)
+
+        then:
+        first == [v: '1']
+        second.is(first)
+        cache.stats == [entries: 1, bytes: 164, hits: 1, misses: 1]
+
+        when:
+        Thread.sleep(150)
+
+        then:
+        cache.getIfPresent('a') == null
+        cache.get('a', 100, loader) == [v: '2']
+        cache.stats.entries == 1
+        cache.stats.bytes == 164
+    }
+
+    def "evicts least recently used values over the size limit"() {
+        given:
+        cache.put('a', [v: 'a'], 60000)
+        cache.put('b', [v: 'b'], 60000)
+
+        when:
+        cache.getIfPresent('a')
+        cache.put('c', [v: 'c'], 60000)
+
+        then:
+        cache.getIfPresent('a') == [v: 'a']
+        cache.getIfPresent('b') == null
+        cache.getIfPresent('c') == [v: 'c']
+        cache.stats.entries == 2
+        cache.stats.bytes == 328
+    }
+
+    def "doesn't cache values larger than the limit"() {
+        when:
+        cache.put('a', [v: 'x' * 200], 60000)
+
+        then:
+        cache.getIfPresent('a') == null
+        cache.stats.bytes == 0
+    }
+
+    def "coalesces concurrent loads of the same key"() {
+        given:
+        AtomicInteger loads = new AtomicInteger()
+        CountDownLatch started = new CountDownLatch(1)
+        CountDownLatch proceed = new CountDownLatch(1)
+        Closure<Map> loader = {
+            loads.incrementAndGet()
+            started.countDown()
+            proceed.await()
+            [v: 'x']
+        }
+        BlockingVariable<Map> first = new BlockingVariable<Map>(5)
+        BlockingVariable<Map> second = new BlockingVariable<Map>(5)
+
+        when:
+        Thread.start { first.set(cache.get('a', 60000, loader)) }
+        started.await()
+        Thread.start { second.set(cache.get('a', 60000, loader)) }
+        Thread.sleep(200)
+        proceed.countDown()
+
+        then:
+        first.get() == [v: 'x']
+        second.get().is(first.get())
+        loads.get() == 1
+    }
+
+    def "rethrows loader failures without caching them"() {
+        when:
+        cache.get('a', 60000) { throw new IllegalStateException('failed') }
+
+        then:
+        IllegalStateException e = thrown()
+        e.message == 'failed'
+
+        when:
+        Map value = cache.get('a', 60000) { [v: 'x'] }
+
+        then:
+        value == [v: 'x']
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.sql.rowset.RowSetMetaDataImpl
+import java.sql.ResultSet
+import java.sql.Timestamp
+import java.sql.Types
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsRowDecoderSpec extends Specification {
+
+    @Unroll
+    def "reads #typeName column reported as SQL type #type as #expected"() {
+        given:
+        ResultSet rs = resultSet(type, typeName, value)
+        ChartsRowDecoder decoder = new ChartsRowDecoder(rs.metaData)
+
+        when:
+        rs.next()
+
+        then:
+        decoder.getReader(1) == reader
+        decoder.readList(rs) == ['2014-01-01', expected]
+
+        where:
+        type          | typeName  | value | reader                                 | expected
+        Types.BIT     | 'TINYINT' | 5L    | ChartsRowDecoder.ColumnReader.LONG    | 5L
+        Types.BIT     | 'BIT'     | 1L    | ChartsRowDecoder.ColumnReader.LONG    | 1L
+        Types.BIT     | 'bool'    | true  | ChartsRowDecoder.ColumnReader.BOOLEAN | 1L
+        Types.BIT     | 'bool'    | false | ChartsRowDecoder.ColumnReader.BOOLEAN | 0L
+        Types.BOOLEAN | 'BOOLEAN' | true  | ChartsRowDecoder.ColumnReader.BOOLEAN | 1L
+        Types.BOOLEAN | 'BOOLEAN' | null  | ChartsRowDecoder.ColumnReader.BOOLEAN | null
+    }
+
+    def "aggregates TINYINT(1) columns reported as BIT by their values"() {
+        given:
+        ChartsAggregator aggregator = ChartsAggregator.parse('day')
+        ResultSet rs = resultSet(Types.TIMESTAMP, Types.BIT, 'TINYINT', [
+                [new Timestamp(0), 2L] as Object[],
+                [new Timestamp(1000), 5L] as Object[]
+        ])
+
+        when:
+        aggregator.aggregate(rs)
+
+        then:
+        aggregator.next()[1] == 7d
+    }
+
+    private static ResultSet resultSet(int type, String typeName, Object value) {
+        resultSet(Types.VARCHAR, type, typeName, [['2014-01-01', value] as Object[]])
+    }
+
+    private static ResultSet resultSet(int categoryType, int type, String typeName, List<Object[]> rows) {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl()
+        metaData.columnCount = 2
+        metaData.setColumnLabel(1, 'category')
+        metaData.setColumnType(1, categoryType)
+        metaData.setColumnLabel(2, 'value')
+        metaData.setColumnType(2, type)
+        metaData.setColumnTypeName(2, typeName)
+
+        Iterator<Object[]> iterator = rows.iterator()
+
+        new MergedResultSet(metaData, { iterator.hasNext() ? iterator.next() : null })
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Requires
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.script.ScriptEngine
+import javax.script.ScriptEngineManager
+import javax.script.ScriptException
+
+/**
+ * Expected values are the output of the browser functions for the same input. Random input is also compared with
+ * the functions of the JavaScript engine the codec replaced, on JVMs which still bundle one.
+ *
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class ChartsUriCodecSpec extends Specification {
+
+    private static final String URI_ERROR = 'URIError'
+
+    // the engine the codec replaced, not bundled with Java 15 and later
+    @Shared
+    ScriptEngine javaScript = new ScriptEngineManager().getEngineByName('JavaScript')
+
+    @Unroll
+    def "encodes and decodes '#value' like the browser"() {
+        expect:
+        ChartsUriCodec.escape(value) == escaped
+        ChartsUriCodec.unescape(escaped) == value
+        ChartsUriCodec.encodeURIComponent(value) == encoded
+        ChartsUriCodec.decodeURIComponent(encoded) == value
+
+        where:
+        value                          | escaped                                    | encoded
+        ''                             | ''                                         | ''
+        'abc'                          | 'abc'                                      | 'abc'
+        'hello world'                  | 'hello%20world'                            | 'hello%20world'
+        'a+b=c'                        | 'a+b%3Dc'                                  | 'a%2Bb%3Dc'
+        'a b+c'                        | 'a%20b+c'                                  | 'a%20b%2Bc'
+        '100%'                         | '100%25'                                   | '100%25'
+        '&?=#/;:,@$'                   | '%26%3F%3D%23/%3B%3A%2C@%24'               | '%26%3F%3D%23%2F%3B%3A%2C%40%24'
+        "!~*'()-_."                    | '%21%7E*%27%28%29-_.'                      | "!~*'()-_."
+        'tab\tnew\nline'               | 'tab%09new%0Aline'                         | 'tab%09new%0Aline'
+        '\u00e9t\u00e9'                | '%E9t%E9'                                  | '%C3%A9t%C3%A9'
+        '\u043f\u0440\u0438'           | '%u043F%u0440%u0438'                       | '%D0%BF%D1%80%D0%B8'
+        '\u65e5\u672c\u8a9e'           | '%u65E5%u672C%u8A9E'                       | '%E6%97%A5%E6%9C%AC%E8%AA%9E'
+        '\ud83d\ude00'                 | '%uD83D%uDE00'                             | '%F0%9F%98%80'
+        'a\ud834\udd1eb'               | 'a%uD834%uDD1Eb'                           | 'a%F0%9D%84%9Eb'
+        '\u0000\u007f\u0080\u00ff'     | '%00%7F%80%FF'                             | '%00%7F%C2%80%C3%BF'
+        '\u0100\uffff'                 | '%u0100%uFFFF'                             | '%C4%80%EF%BF%BF'
+        "'x' <> \"y\""                 | '%27x%27%20%3C%3E%20%22y%22'               | "'x'%20%3C%3E%20%22y%22"
+    }
+
+    @Unroll
+    def "decodes '#value' leaving plus signs and invalid escapes as they are"() {
+        expect:
+        ChartsUriCodec.unescape(value) == unescaped
+
+        where:
+        value           | unescaped
+        'a+b'           | 'a+b'
+        '%20+%2B'       | ' ++'
+        '%u00e9%e9'     | '\u00e9\u00e9'
+        '%zz'           | '%zz'
+        '%u12'          | '%u12'
+        '100%'          | '100%'
+        '%'             | '%'
+    }
+
+    def "decodeURIComponent keeps plus signs and accepts lower case escapes"() {
+        expect:
+        ChartsUriCodec.decodeURIComponent('a+b%20c') == 'a+b c'
+        ChartsUriCodec.decodeURIComponent('%c3%a9') == '\u00e9'
+    }
+
+    @Unroll
+    def "decodeURIComponent rejects '#value' like URIError"() {
+        when:
+        ChartsUriCodec.decodeURIComponent(value)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        value << ['%E9', '%', '%zz', '%C3', '%F0%9F%98']
+    }
+
+    @Unroll
+    def "encodeURIComponent rejects unpaired surrogate in '#value'"() {
+        when:
+        ChartsUriCodec.encodeURIComponent(value)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        value << ['\ud83d', '\ude00a', 'a\ud83db']
+    }
+
+    def "null values are passed through"() {
+        expect:
+        ChartsUriCodec.escape(null) == null
+        ChartsUriCodec.unescape(null) == null
+        ChartsUriCodec.encodeURIComponent(null) == null
+        ChartsUriCodec.decodeURIComponent(null) == null
+    }
+
+    def "encodeURIComponent matches URLEncoder across the Unicode range"() {
+        given:
+        StringBuilder sb = new StringBuilder()
+
+        for (int codePoint = 0; codePoint <= 0x10FFFF; codePoint += codePoint < 0x800 ? 1 : 97) {
+            if (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE)
+                sb.appendCodePoint(codePoint)
+        }
+
+        String value = sb.toString()
+
+        expect:
+        ChartsUriCodec.encodeURIComponent(value) == urlEncode(value)
+        ChartsUriCodec.decodeURIComponent(urlEncode(value)) == value
+        ChartsUriCodec.unescape(ChartsUriCodec.escape(value)) == value
+    }
+
+    @Unroll
+    @Requires({ new ScriptEngineManager().getEngineByName('JavaScript') != null })
+    def "#function matches the script engine for random #kind"() {
+        expect:
+        inputs.findAll { String value -> evaluate("${function}(value)", value) != codec(function, value) } == []
+
+        where:
+        function             | kind              | inputs
+        'escape'             | 'strings'         | randomStrings(1, true)
+        'encodeURIComponent' | 'strings'         | randomStrings(2, true)
+        'unescape'           | 'escapes'         | randomEscapes(3)
+        'decodeURIComponent' | 'escapes'         | randomEscapes(4)
+        'unescape'           | 'escaped strings' | randomStrings(5, true).collect(ChartsUriCodec.&escape)
+        'decodeURIComponent' | 'encoded strings' | randomStrings(6, false).collect(ChartsUriCodec.&encodeURIComponent)
+    }
+
+    @Requires({ new ScriptEngineManager().getEngineByName('JavaScript') != null })
+    def "share links are encoded and decoded like by the script engine"() {
+        given:
+        ChartsEncryprionService service = new ChartsEncryprionService()
+        List<String> values = randomStrings(7, true)
+
+        expect:
+        values.findAll { String value ->
+            String link = service.encodeBase64(value)
+            String scriptLink = evaluate('encodeURIComponent(escape(value))', value).getBytes('ISO-8859-1')
+                    .encodeBase64()
+            String decoded = evaluate('unescape(decodeURIComponent(value))',
+                    new String(link.decodeBase64(), 'ISO-8859-1'))
+
+            link != scriptLink || service.decodeBase64(link) != decoded || decoded != value
+        } == []
+    }
+
+    private String evaluate(String script, String value) {
+        javaScript.put('value', value)
+
+        try {
+            javaScript.eval(script) as String
+        } catch (ScriptException ignored) {
+            URI_ERROR
+        }
+    }
+
+    private static String codec(String function, String value) {
+        try {
+            ChartsUriCodec."${function}"(value)
+        } catch (IllegalArgumentException ignored) {
+            URI_ERROR
+        }
+    }
+
+    /**
+     * Strings of ASCII, control, Latin-1, other BMP and supplementary characters, optionally with lone surrogates.
+     */
+    private static List<String> randomStrings(long seed, boolean loneSurrogates) {
+        Random random = new Random(seed)
+
+        (1..500).collect {
+            StringBuilder sb = new StringBuilder()
+
+            random.nextInt(17).times {
+                switch (random.nextInt(10)) {
+                    case 0..3:
+                        sb.append((char) (0x20 + random.nextInt(0x5f)))
+                        break
+                    case 4:
+                        sb.append((char) random.nextInt(0x20))
+                        break
+                    case 5:
+                        sb.append((char) (0x7f + random.nextInt(0x81)))
+                        break
+                    case 6:
+                        sb.append((char) (0x100 + random.nextInt(0xd800 - 0x100)))
+                        break
+                    case 7:
+                        sb.append((char) (0xe000 + random.nextInt(0x2000)))
+                        break
+                    case 8:
+                        sb.appendCodePoint(0x10000 + random.nextInt(0x100000))
+                        break
+                    default:
+                        boolean surrogate = loneSurrogates && random.nextInt(8) == 0
+                        sb.append(surrogate ? (char) (0xd800 + random.nextInt(0x800)) : 'x')
+                }
+            }
+
+            sb.toString()
+        }
+    }
+
+    /**
+     * Strings of valid, truncated and invalid escapes, UTF-8 continuation bytes and encoded characters. Nashorn
+     * reads a sign as part of the hex digits (<code>unescape('%+1')</code>), browsers don't, so such sequences are
+     * left out.
+     */
+    private static List<String> randomEscapes(long seed) {
+        Random random = new Random(seed)
+
+        List<String> escapes = (1..500).collect {
+            StringBuilder sb = new StringBuilder()
+
+            random.nextInt(9).times {
+                switch (random.nextInt(8)) {
+                    case 0:
+                        sb.append('%')
+                        break
+                    case 1:
+                        sb.append('%u')
+                        break
+                    case 2:
+                        sb.append(hex(random, 1 + random.nextInt(2)))
+                        break
+                    case 3:
+                        sb.append('%').append(hex(random, 2))
+                        break
+                    case 4:
+                        sb.append('%u').append(hex(random, 4))
+                        break
+                    case 5:
+                        sb.append('%').append(Integer.toHexString(0x80 + random.nextInt(0x80)).toUpperCase())
+                        break
+                    case 6:
+                        int codePoint = random.nextInt(0x110000)
+                        codePoint = codePoint in 0xd800..0xdfff ? 'z'.codePointAt(0) : codePoint
+                        sb.append(ChartsUriCodec.encodeURIComponent(new String(Character.toChars(codePoint))))
+                        break
+                    default:
+                        sb.append(random.nextBoolean() ? '+' : 'a')
+                }
+            }
+
+            sb.toString()
+        }
+
+        escapes.findAll { !(it =~ /%u?[0-9A-Fa-f]{0,3}[+-]/) }
+    }
+
+    private static String hex(Random random, int digits) {
+        StringBuilder sb = new StringBuilder()
+
+        digits.times {
+            String digit = Integer.toHexString(random.nextInt(16))
+            sb.append(random.nextBoolean() ? digit.toUpperCase() : digit)
+        }
+
+        sb.toString()
+    }
+
+    // URLEncoder follows HTML forms: space as plus and fewer unreserved characters
+    private static String urlEncode(String value) {
+        URLEncoder.encode(value, 'UTF-8').replace('+', '%20').replace('%21', '!').replace('%27', "'")
+                .replace('%28', '(').replace('%29', ')').replace('%7E', '~')
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import grails.gsp.PageRenderer
+import grails.test.mixin.TestFor
+import org.codehaus.groovy.grails.plugins.codecs.SHA256Codec
+import org.codehaus.groovy.grails.web.pages.GroovyPagesTemplateEngine
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@TestFor(ConsoleChartsController)
+class ConsoleChartsControllerSpec extends Specification {
+
+    ChartsResultCache pageCache = new ChartsResultCache()
+    int rendered = 0
+
+    def setup() {
+        mockCodec(SHA256Codec)
+
+        controller.chartsEncryprionService = new Expando(decrypt: { String value ->
+            value == 'chart' ? '{"query": "select 1", "connectionString": "connection"}' : 'jdbc:h2:mem:charts'
+        })
+        controller.consoleChartsService = new Expando(pageCache: pageCache, metrics: new ChartsMetrics(),
+                getData: { Object[] args -> [columns: ['day', 'total'], content: [['2014-01-01', 1]], count: 1] })
+        controller.groovyPageRenderer = new PageRenderer((GroovyPagesTemplateEngine) null) {
+            @Override
+            String render(Map args) {
+                rendered++
+                '<html>chart</html>'
+            }
+        }
+    }
+
+    @Unroll
+    def "responds to matching If-None-Match with 304 without rendering the view (page cache ttl #ttl)"() {
+        given:
+        pageCache.ttl = ttl
+        controller.view('chart')
+        String etag = response.getHeader('ETag')
+        nextRequest()
+        request.addHeader('If-None-Match', etag)
+
+        when:
+        controller.view('chart')
+
+        then:
+        etag
+        response.status == 304
+        response.getHeader('ETag') == etag
+        response.contentAsString == ''
+        !webRequest.renderView
+        rendered == 1
+
+        where:
+        ttl << [0L, 60000L]
+    }
+
+    def "responds to If-None-Match of another page with the page"() {
+        given:
+        request.addHeader('If-None-Match', '"other"')
+
+        when:
+        controller.view('chart')
+
+        then:
+        response.status == 200
+        response.contentAsString == '<html>chart</html>'
+    }
+
+    def "responds to If-Modified-Since of a cached page with 304 without rendering the view"() {
+        given:
+        pageCache.ttl = 60000
+        controller.view('chart')
+        nextRequest()
+        request.addHeader('If-Modified-Since', new Date(System.currentTimeMillis() + 1000))
+
+        when:
+        controller.view('chart')
+
+        then:
+        response.status == 304
+        response.contentAsString == ''
+        !webRequest.renderView
+        rendered == 1
+    }
+
+    def "responds to If-Modified-Since older than the cached page with the page"() {
+        given:
+        pageCache.ttl = 60000
+        controller.view('chart')
+        nextRequest()
+        request.addHeader('If-Modified-Since', new Date(0))
+
+        when:
+        controller.view('chart')
+
+        then:
+        response.status == 200
+        response.contentAsString == '<html>chart</html>'
+        rendered == 1
+    }
+
+    private void nextRequest() {
+        response.reset()
+        webRequest.renderView = true
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import grails.test.mixin.TestFor
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+@TestFor(ConsoleChartsService)
+class ConsoleChartsServiceSpec extends Specification {
+
+    ChartsPostgreSqlConnectionProvider postgresql = new ChartsPostgreSqlConnectionProvider()
+
+    def setup() {
+        service.connectionProviders = [postgresql: postgresql]
+    }
+
+    def "opens PostgreSQL connections with untyped string parameters"() {
+        expect:
+        postgresql.properties.getProperty('stringtype') == 'unspecified'
+    }
+
+    def "binds since of an incremental PostgreSQL query as string compared with the typed column"() {
+        given:
+        Connection connection = Mock(Connection)
+        PreparedStatement stmt = Mock(PreparedStatement)
+        service.providers[connection] = postgresql
+
+        String select = "SELECT day, total FROM sales WHERE note <> 'a :b'"
+        String query = service.withSince(select, '{"databaseType": "postgresql"}', 'day')
+
+        when:
+        service.prepare(connection, query, [since: '2014-01-01 00:00:00'], true)
+
+        then:
+        query == "SELECT * FROM (\n${select}\n) AS incremental WHERE \"day\" >= :since"
+        1 * connection.prepareStatement("SELECT * FROM (\n${select}\n) AS incremental WHERE \"day\" >= ?",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) >> stmt
+        1 * stmt.setObject(1, '2014-01-01 00:00:00')
+        0 * stmt._
+    }
+
+}
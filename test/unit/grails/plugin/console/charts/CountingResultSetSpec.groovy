@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grails.plugin.console.charts
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.sql.rowset.RowSetMetaDataImpl
+import java.sql.ResultSet
+import java.sql.Types
+
+/**
+ * @author <a href='mailto:donbeave@gmail.com'>Alexey Zhokhov</a>
+ */
+class CountingResultSetSpec extends Specification {
+
+    @Unroll
+    def "reads page at offset #offset of a #kind result"() {
+        given:
+        CountingResultSet rs = new CountingResultSet(resultSet(10, scrollable), new ChartsRowLimit(3, 0, 0, offset))
+
+        expect:
+        readAll(rs) == rows
+        rs.count == rows.size()
+        rs.truncation == truncation
+
+        where:
+        kind           | scrollable | offset | rows       | truncation
+        'forward-only' | false      | 0      | [1, 2, 3]  | [truncated: true, cursor: '3']
+        'forward-only' | false      | 3      | [4, 5, 6]  | [truncated: true, cursor: '6']
+        'forward-only' | false      | 7      | [8, 9, 10] | [:]
+        'forward-only' | false      | 20     | []         | [:]
+        'scrollable'   | true       | 0      | [1, 2, 3]  | [truncated: true, cursor: '3']
+        'scrollable'   | true       | 3      | [4, 5, 6]  | [truncated: true, cursor: '6']
+        'scrollable'   | true       | 7      | [8, 9, 10] | [:]
+        'scrollable'   | true       | 20     | []         | [:]
+    }
+
+    @Unroll
+    def "truncates a #kind result at the size limit"() {
+        given:
+        // every row is about 105 bytes as JSON
+        CountingResultSet rs = new CountingResultSet(resultSet(10, scrollable), new ChartsRowLimit(0, 250, 0, 0))
+
+        expect:
+        readAll(rs) == [1, 2, 3]
+        rs.truncation == [truncated: true, cursor: '3']
+
+        where:
+        kind           | scrollable
+        'forward-only' | false
+        'scrollable'   | true
+    }
+
+    def "scrolls within the page of a scrollable result"() {
+        given:
+        CountingResultSet rs = new CountingResultSet(resultSet(10, true), new ChartsRowLimit(3, 0, 0, 2))
+
+        when:
+        boolean beforeFirst = rs.isBeforeFirst()
+        boolean last = rs.last()
+
+        then:
+        beforeFirst
+        last
+        rs.getLong(1) == 5
+        rs.row == 3
+        rs.isLast()
+
+        when:
+        rs.beforeFirst()
+
+        then:
+        rs.next()
+        rs.getLong(1) == 3
+        rs.row == 1
+        rs.isFirst()
+        rs.absolute(-1)
+        rs.getLong(1) == 5
+        !rs.absolute(4)
+        rs.isAfterLast()
+        rs.previous()
+        rs.getLong(1) == 5
+        rs.first()
+        rs.relative(1)
+        rs.getLong(1) == 4
+        !rs.relative(-2)
+        rs.isBeforeFirst()
+
+        when:
+        rs.afterLast()
+
+        then:
+        rs.isAfterLast()
+        rs.previous()
+        rs.getLong(1) == 5
+        rs.count == 3
+        rs.truncation == [truncated: true, cursor: '5']
+    }
+
+    def "counts rows read again after scrolling back once"() {
+        given:
+        CountingResultSet rs = new CountingResultSet(resultSet(5, true))
+
+        when:
+        List first = readAll(rs)
+        rs.beforeFirst()
+        List second = readAll(rs)
+
+        then:
+        first == [1, 2, 3, 4, 5]
+        second == first
+        rs.count == 5
+        rs.truncation == [:]
+    }
+
+    private static List<Long> readAll(ResultSet rs) {
+        List<Long> values = []
+
+        while (rs.next()) {
+            values << rs.getLong(1)
+        }
+
+        values
+    }
+
+    private static ResultSet resultSet(int count, boolean scrollable) {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl()
+        metaData.columnCount = 2
+        metaData.setColumnLabel(1, 'n')
+        metaData.setColumnType(1, Types.BIGINT)
+        metaData.setColumnLabel(2, 'label')
+        metaData.setColumnType(2, Types.VARCHAR)
+
+        Iterator<Object[]> rows = (1..count).collect { [it as Long, 'x' * 100] as Object[] }.iterator()
+        Closure<Object[]> reader = { rows.hasNext() ? rows.next() : null }
+
+        scrollable ? MergedResultSet.scrollable(metaData, reader) : new MergedResultSet(metaData, reader)
+    }
+
+}